@@ -23,6 +23,15 @@ public class Cluster {
       //System.out.println(id);
    }
    
+   /**
+    * creates an empty cluster with the given id (features are added with {@link #add(Feature)})
+    * @param id
+    */
+   public Cluster(int id) {
+      features = new LinkedList<Feature>();
+      this.id = id;
+   }
+   
    public LinkedList<Feature> getFeatures() {
       return features;
    }
@@ -34,6 +43,11 @@ public class Cluster {
       features.addAll(c.features);
    }
 
+   public void add(Feature f) {
+      f.setCluster(this);
+      features.add(f);
+   }
+
    public int size() {
       return features.size();
    }
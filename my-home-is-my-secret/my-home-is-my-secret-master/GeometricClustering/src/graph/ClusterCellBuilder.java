@@ -0,0 +1,132 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateList;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.triangulate.quadedge.QuadEdge;
+import com.vividsolutions.jts.triangulate.quadedge.Vertex;
+
+/**
+ * Computes the union of the voronoi cells of the points of a cluster without polygon overlay.
+ *
+ * The boundary of the union consists of the voronoi edges dual to the triangulation edges
+ * that leave the cluster (edges to points of other clusters or to the frame of the
+ * subdivision). These voronoi edges are collected while walking around each point of the
+ * cluster, and then chained into rings. The voronoi cells of jts' getVoronoiCellPolygon are
+ * clockwise, so the shell of the union is clockwise and holes are counterclockwise.
+ */
+public class ClusterCellBuilder {
+
+   private TriangulationBuilder triangulation;
+   private GeometryFactory gf;
+
+   public ClusterCellBuilder(TriangulationBuilder triangulation, GeometryFactory gf) {
+      this.triangulation = triangulation;
+      this.gf = gf;
+      triangulation.computeCircumcentres();
+   }
+
+   /**
+    * returns the union of the voronoi cells of the features of cluster c
+    * (a Polygon, or a MultiPolygon if the cells only touch in single points)
+    * @param c the cluster
+    * @param clusterIds for each feature id, the id of the cluster containing the feature
+    * @return
+    */
+   public Geometry getCell(Cluster c, int[] clusterIds) {
+      //boundary edges of the union, from the start to the end corner (corners are the
+      //circumcentre vertices, which are shared by the three edges of a triangle)
+      Map<Vertex, Vertex> boundary = new IdentityHashMap<Vertex, Vertex>();
+      for (Feature f : c.getFeatures()) {
+         QuadEdge start = triangulation.getVertexEdge(f.getID());
+         if (start == null) {
+            continue;
+         }
+         //the corners of the cell are the circumcentres of the edges qe around the point in
+         //clockwise order (of the triangle left of qe); the cell edge between the corners 
+         //of qe and qe.oPrev() is dual to qe
+         QuadEdge qe = start;
+         do {
+            QuadEdge next = qe.oPrev();
+            Vertex neighbor = qe.dest();
+            if (!(neighbor instanceof IndexedVertex)
+                  || clusterIds[((IndexedVertex) neighbor).getIndex()] != c.getID()) {
+               boundary.put(triangulation.getCircumcentre(qe), triangulation.getCircumcentre(next));
+            }
+            qe = next;
+         } while (qe != start);
+      }
+
+      //chain boundary edges into rings (every corner starts at most one boundary edge and 
+      //ends one if it starts one, unless the triangulation is inconsistent)
+      List<LinearRing> shells = new ArrayList<LinearRing>();
+      List<LinearRing> holes = new ArrayList<LinearRing>();
+      while (!boundary.isEmpty()) {
+         Vertex first = boundary.keySet().iterator().next();
+         CoordinateList ring = new CoordinateList();
+         Vertex v = first;
+         do {
+            ring.add(v.getCoordinate(), false);
+            v = boundary.remove(v);
+         } while (v != null && v != first);
+         if (v == null) {
+            return getUnion(c);
+         }
+         ring.closeRing();
+         if (ring.size() < 4) {
+            continue; // ring of zero area
+         }
+         Coordinate[] coords = ring.toCoordinateArray();
+         if (CGAlgorithms.isCCW(coords)) {
+            holes.add(gf.createLinearRing(coords));
+         } else {
+            shells.add(gf.createLinearRing(coords));
+         }
+      }
+
+      if (shells.size() == 1) {
+         return gf.createPolygon(shells.get(0), holes.toArray(new LinearRing[0]));
+      }
+
+      //several shells: assign each hole to the shell that contains it
+      Polygon[] polygons = new Polygon[shells.size()];
+      for (int i = 0; i < shells.size(); i++) {
+         Coordinate[] shell = shells.get(i).getCoordinates();
+         List<LinearRing> shellHoles = new ArrayList<LinearRing>();
+         for (LinearRing hole : holes) {
+            if (CGAlgorithms.isPointInRing(hole.getCoordinateN(0), shell)) {
+               shellHoles.add(hole);
+            }
+         }
+         polygons[i] = gf.createPolygon(shells.get(i), shellHoles.toArray(new LinearRing[0]));
+      }
+      return gf.createMultiPolygon(polygons);
+   }
+
+   /**
+    * returns the union of the voronoi cells of the features of cluster c, computed by 
+    * polygon overlay
+    * @param c
+    * @return
+    */
+   private Geometry getUnion(Cluster c) {
+      List<Polygon> cells = new ArrayList<Polygon>();
+      for (Feature f : c.getFeatures()) {
+         Polygon cell = triangulation.getVoronoiCell(f.getID(), gf);
+         if (cell != null) {
+            cells.add(cell);
+         }
+      }
+      return CascadedPolygonUnion.union(cells);
+   }
+}
@@ -0,0 +1,191 @@
+package graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * The result of a clustering run that is needed to update the clustering when points are
+ * added or removed: the points (null for removed points, so that ids stay the same), the
+ * cluster id of each point, the neighbors of each point in the triangulation and whether
+ * it is adjacent to the frame of the subdivision.
+ *
+ * The voronoi cell of a point only depends on these neighbors (and, for points adjacent to
+ * the frame, on the extent of all points), so the state tells which cells have changed.
+ */
+public class ClusteringState {
+
+   private static final int MAGIC = 0x434c5354; // "CLST"
+   private static final int VERSION = 1;
+
+   private int k;
+   private Coordinate[] points;
+   private int[] clusterIds;
+   private Envelope extent;
+   private int[] offsets;
+   private int[] neighbors;
+   private boolean[] adjacentToFrame;
+
+   private ClusteringState() {
+   }
+
+   /**
+    * captures the state after clustering graph g (built from the triangulation tb) with parameter k
+    * @param k
+    * @param points the points the triangulation was built from
+    * @param tb
+    * @param g
+    * @return
+    */
+   public static ClusteringState of(int k, Coordinate[] points, TriangulationBuilder tb, Graph g) {
+      ClusteringState s = new ClusteringState();
+      int n = points.length;
+      s.k = k;
+      s.points = points;
+      s.clusterIds = new int[n];
+      int[] ids = g.getClusterIds();
+      Feature[] features = tb.getFeatures();
+      for (int i = 0; i < n; i++) {
+         s.clusterIds[i] = features[i] == null ? -1 : ids[i];
+      }
+      s.extent = tb.getExtent();
+
+      CsrAdjacency adjacency = g.getAdjacency();
+      s.offsets = new int[n + 1];
+      for (int i = 0; i < n; i++) {
+         s.offsets[i + 1] = s.offsets[i] + adjacency.getDegree(i);
+      }
+      s.neighbors = new int[s.offsets[n]];
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < adjacency.getDegree(i); j++) {
+            s.neighbors[s.offsets[i] + j] = adjacency.getNeighbor(i, j);
+         }
+      }
+      s.adjacentToFrame = new boolean[n];
+      for (int i = 0; i < n; i++) {
+         s.adjacentToFrame[i] = tb.isAdjacentToFrame(i);
+      }
+      return s;
+   }
+
+   public int getK() {
+      return k;
+   }
+
+   /**
+    * returns the points indexed by id (null for removed points)
+    * @return
+    */
+   public Coordinate[] getPoints() {
+      return points;
+   }
+
+   /**
+    * returns the cluster id of each point (-1 for points without node)
+    * @return
+    */
+   public int[] getClusterIds() {
+      return clusterIds;
+   }
+
+   public Envelope getExtent() {
+      return extent;
+   }
+
+   public boolean isAdjacentToFrame(int id) {
+      return adjacentToFrame[id];
+   }
+
+   /**
+    * returns true if point id has exactly the given neighbors (in increasing order)
+    * @param id
+    * @param adjacency
+    * @return
+    */
+   public boolean hasSameNeighbors(int id, CsrAdjacency adjacency) {
+      int degree = offsets[id + 1] - offsets[id];
+      if (degree != adjacency.getDegree(id)) {
+         return false;
+      }
+      for (int j = 0; j < degree; j++) {
+         if (neighbors[offsets[id] + j] != adjacency.getNeighbor(id, j)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public void write(String filename) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(k);
+         out.writeInt(points.length);
+         for (int i = 0; i < points.length; i++) {
+            out.writeBoolean(points[i] != null);
+            if (points[i] != null) {
+               out.writeDouble(points[i].x);
+               out.writeDouble(points[i].y);
+            }
+            out.writeInt(clusterIds[i]);
+            out.writeBoolean(adjacentToFrame[i]);
+            out.writeInt(offsets[i + 1] - offsets[i]);
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+               out.writeInt(neighbors[j]);
+            }
+         }
+         out.writeDouble(extent.getMinX());
+         out.writeDouble(extent.getMaxX());
+         out.writeDouble(extent.getMinY());
+         out.writeDouble(extent.getMaxY());
+      }
+   }
+
+   public static ClusteringState read(String filename) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException(filename + " is not a clustering state file");
+         }
+         ClusteringState s = new ClusteringState();
+         s.k = in.readInt();
+         int n = in.readInt();
+         s.points = new Coordinate[n];
+         s.clusterIds = new int[n];
+         s.adjacentToFrame = new boolean[n];
+         s.offsets = new int[n + 1];
+         int[] neighbors = new int[16];
+         for (int i = 0; i < n; i++) {
+            if (in.readBoolean()) {
+               double x = in.readDouble();
+               double y = in.readDouble();
+               s.points[i] = new Coordinate(x, y);
+            }
+            s.clusterIds[i] = in.readInt();
+            s.adjacentToFrame[i] = in.readBoolean();
+            int degree = in.readInt();
+            s.offsets[i + 1] = s.offsets[i] + degree;
+            while (neighbors.length < s.offsets[i + 1]) {
+               neighbors = Arrays.copyOf(neighbors, 2 * neighbors.length);
+            }
+            for (int j = s.offsets[i]; j < s.offsets[i + 1]; j++) {
+               neighbors[j] = in.readInt();
+            }
+         }
+         s.neighbors = neighbors;
+         double minX = in.readDouble();
+         double maxX = in.readDouble();
+         double minY = in.readDouble();
+         double maxY = in.readDouble();
+         s.extent = new Envelope(minX, maxX, minY, maxY);
+         return s;
+      }
+   }
+}
@@ -0,0 +1,107 @@
+package graph;
+
+/**
+ * Adjacency of a graph with vertices 0..n-1 in compressed sparse row format.
+ * The neighbors of vertex v are neighbors[offsets[v]] .. neighbors[offsets[v + 1] - 1]
+ * in increasing order; edgeIndex holds, for each of these entries, the index of the
+ * corresponding edge in the {@link EdgeTable} the adjacency was built from.
+ */
+public class CsrAdjacency {
+
+   private int[] offsets;
+   private int[] neighbors;
+   private int[] edgeIndex;
+
+   /**
+    * builds the adjacency of n vertices from an edge table (edges keep their indices,
+    * so the table must not be reordered afterwards)
+    * @param n
+    * @param edges
+    */
+   public CsrAdjacency(int n, EdgeTable edges) {
+      int m = edges.size();
+      offsets = new int[n + 1];
+      neighbors = new int[2 * m];
+      edgeIndex = new int[2 * m];
+
+      //count degrees
+      for (int e = 0; e < m; e++) {
+         offsets[edges.getSource(e) + 1]++;
+         offsets[edges.getTarget(e) + 1]++;
+      }
+      for (int v = 0; v < n; v++) {
+         offsets[v + 1] += offsets[v];
+      }
+
+      //fill rows; iterating over the entries grouped by the other vertex
+      //(two counting passes) leaves every row sorted by neighbor
+      int[] byVertex = new int[2 * m];
+      int[] next = new int[n];
+      System.arraycopy(offsets, 0, next, 0, n);
+      for (int e = 0; e < m; e++) {
+         byVertex[next[edges.getSource(e)]++] = 2 * e;
+         byVertex[next[edges.getTarget(e)]++] = 2 * e + 1;
+      }
+      System.arraycopy(offsets, 0, next, 0, n);
+      for (int u = 0; u < n; u++) {
+         for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+            //u is the source of the entry if it is even, the target otherwise
+            int e = byVertex[i] >> 1;
+            int v = (byVertex[i] & 1) == 0 ? edges.getTarget(e) : edges.getSource(e);
+            neighbors[next[v]] = u;
+            edgeIndex[next[v]] = e;
+            next[v]++;
+         }
+      }
+   }
+
+   public int getNumberOfVertices() {
+      return offsets.length - 1;
+   }
+
+   public int getDegree(int v) {
+      return offsets[v + 1] - offsets[v];
+   }
+
+   /**
+    * returns the i-th neighbor of vertex v (0 <= i < degree of v)
+    * @param v
+    * @param i
+    * @return
+    */
+   public int getNeighbor(int v, int i) {
+      return neighbors[offsets[v] + i];
+   }
+
+   /**
+    * returns the index of the edge to the i-th neighbor of vertex v
+    * @param v
+    * @param i
+    * @return
+    */
+   public int getEdgeIndex(int v, int i) {
+      return edgeIndex[offsets[v] + i];
+   }
+
+   /**
+    * return the index of an edge between u and v (-1 if no such edge exists)
+    * @param u
+    * @param v
+    * @return
+    */
+   public int getEdge(int u, int v) {
+      int low = offsets[u];
+      int high = offsets[u + 1] - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         if (neighbors[mid] < v) {
+            low = mid + 1;
+         } else if (neighbors[mid] > v) {
+            high = mid - 1;
+         } else {
+            return edgeIndex[mid];
+         }
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,138 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets over the integers 0..n-1, stored in two primitive arrays.
+ * Uses union by size and path compression, so a merge costs nearly constant
+ * time and no objects are created per element.
+ */
+public class DisjointSets {
+
+   /**
+    * parent[i] is the parent of element i (a root is its own parent)
+    */
+   private int[] parent;
+
+   /**
+    * size[r] is the number of elements in the set with root r (only valid for roots)
+    */
+   private int[] size;
+
+   /**
+    * the number of sets
+    */
+   private int count;
+
+   public DisjointSets(int n) {
+      parent = new int[n];
+      size = new int[n];
+      for (int i = 0; i < n; i++) {
+         parent[i] = i;
+      }
+      Arrays.fill(size, 1);
+      count = n;
+   }
+
+   /**
+    * creates disjoint sets from a labelling: element i is in the set whose root is
+    * element labels[i] (every root must be labelled with itself)
+    * @param labels
+    */
+   public DisjointSets(int[] labels) {
+      int n = labels.length;
+      parent = Arrays.copyOf(labels, n);
+      size = new int[n];
+      for (int i = 0; i < n; i++) {
+         size[parent[i]]++;
+      }
+      for (int i = 0; i < n; i++) {
+         if (parent[i] == i) {
+            count++;
+         }
+      }
+   }
+
+   /**
+    * returns the root of the set containing element i
+    * @param i
+    * @return
+    */
+   public int find(int i) {
+      int root = i;
+      while (parent[root] != root) {
+         root = parent[root];
+      }
+      //path compression
+      while (parent[i] != root) {
+         int next = parent[i];
+         parent[i] = root;
+         i = next;
+      }
+      return root;
+   }
+
+   /**
+    * returns the number of elements in the set containing element i
+    * @param i
+    * @return
+    */
+   public int size(int i) {
+      return size[find(i)];
+   }
+
+   /**
+    * merges the sets with roots r1 and r2 (which must be different roots);
+    * the root of the larger set becomes the root of the merged set, ties are
+    * resolved in favor of r1
+    * @param r1
+    * @param r2
+    * @return the root of the merged set
+    */
+   public int unionRoots(int r1, int r2) {
+      if (size[r1] < size[r2]) {
+         int tmp = r1;
+         r1 = r2;
+         r2 = tmp;
+      }
+      parent[r2] = r1;
+      size[r1] += size[r2];
+      count--;
+      return r1;
+   }
+
+   /**
+    * merges the sets containing elements i and j
+    * @param i
+    * @param j
+    * @return the root of the merged set
+    */
+   public int union(int i, int j) {
+      int r1 = find(i);
+      int r2 = find(j);
+      if (r1 == r2) {
+         return r1;
+      }
+      return unionRoots(r1, r2);
+   }
+
+   public int getNumberOfSets() {
+      return count;
+   }
+
+   public int getNumberOfElements() {
+      return parent.length;
+   }
+
+   /**
+    * returns, for every element, the root of its set
+    * @return
+    */
+   public int[] getRoots() {
+      int[] roots = new int[parent.length];
+      for (int i = 0; i < parent.length; i++) {
+         roots[i] = find(i);
+      }
+      return roots;
+   }
+}
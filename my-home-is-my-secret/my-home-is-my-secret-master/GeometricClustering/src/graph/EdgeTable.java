@@ -0,0 +1,183 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Column-wise storage of the edges of a graph whose vertices are numbered 0..n-1.
+ * Edge i connects source[i] and target[i] and has length length[i].
+ *
+ * The table can be sorted by length, id of source and id of target (the same
+ * order as {@link Edge#compareTo(Edge)}, provided that vertex numbers follow
+ * the order of the node ids).
+ */
+public class EdgeTable {
+
+   //number of bits sorted in one pass of the radix sort
+   private static final int DIGIT_BITS = 16;
+   private static final int BUCKETS = 1 << DIGIT_BITS;
+
+   //below this number of edges per thread the sort runs on a single thread
+   private static final int MIN_CHUNK = 1 << 16;
+
+   private int[] source;
+   private int[] target;
+   private double[] length;
+   private int size;
+   private boolean sorted;
+
+   public EdgeTable(int capacity) {
+      capacity = Math.max(capacity, 1);
+      source = new int[capacity];
+      target = new int[capacity];
+      length = new double[capacity];
+      size = 0;
+      sorted = true;
+   }
+
+   /**
+    * appends an edge to the table
+    * @param s the source vertex
+    * @param t the target vertex
+    * @param l the length of the edge
+    * @return the index of the new edge
+    */
+   public int add(int s, int t, double l) {
+      if (size == source.length) {
+         int capacity = 2 * size;
+         source = Arrays.copyOf(source, capacity);
+         target = Arrays.copyOf(target, capacity);
+         length = Arrays.copyOf(length, capacity);
+      }
+      source[size] = s;
+      target[size] = t;
+      length[size] = l;
+      sorted = false;
+      return size++;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public int getSource(int i) {
+      return source[i];
+   }
+
+   public int getTarget(int i) {
+      return target[i];
+   }
+
+   public double getLength(int i) {
+      return length[i];
+   }
+
+   public boolean isSorted() {
+      return sorted;
+   }
+
+   /**
+    * sorts the edges by increasing length; edges of equal length are ordered
+    * by source and then by target vertex; the sort is a stable LSD radix sort
+    * on an index permutation whose passes run on the common fork-join pool
+    */
+   public void sort() {
+      if (sorted) {
+         return;
+      }
+
+      //lengths mapped to longs whose unsigned order is the order of the doubles
+      long[] keys = new long[size];
+      for (int i = 0; i < size; i++) {
+         long bits = Double.doubleToLongBits(length[i] + 0.0); // + 0.0 turns -0.0 into 0.0
+         keys[i] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+      }
+
+      int[] order = new int[size];
+      int[] buffer = new int[size];
+      for (int i = 0; i < size; i++) {
+         order[i] = i;
+      }
+
+      int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), size / MIN_CHUNK));
+
+      //least significant key first: target, source, length
+      for (int pass = 0; pass < 8; pass++) {
+         if (radixPass(pass, keys, order, buffer, chunks)) {
+            int[] tmp = order;
+            order = buffer;
+            buffer = tmp;
+         }
+      }
+
+      int[] newSource = new int[source.length];
+      int[] newTarget = new int[target.length];
+      double[] newLength = new double[length.length];
+      for (int i = 0; i < size; i++) {
+         int e = order[i];
+         newSource[i] = source[e];
+         newTarget[i] = target[e];
+         newLength[i] = length[e];
+      }
+      source = newSource;
+      target = newTarget;
+      length = newLength;
+      sorted = true;
+   }
+
+   /**
+    * returns digit number pass of the sort key of edge e
+    */
+   private int digit(int pass, int e, long[] keys) {
+      if (pass < 2) {
+         return (target[e] >>> (pass * DIGIT_BITS)) & (BUCKETS - 1);
+      } else if (pass < 4) {
+         return (source[e] >>> ((pass - 2) * DIGIT_BITS)) & (BUCKETS - 1);
+      }
+      return (int) (keys[e] >>> ((pass - 4) * DIGIT_BITS)) & (BUCKETS - 1);
+   }
+
+   /**
+    * stably distributes order into out according to one digit of the key
+    * @return false if the pass was skipped because all edges share the digit
+    */
+   private boolean radixPass(int pass, long[] keys, int[] order, int[] out, int chunks) {
+      int[][] counts = new int[chunks][BUCKETS];
+      IntStream.range(0, chunks).parallel().forEach(c -> {
+         int[] count = counts[c];
+         for (int i = chunkStart(c, chunks); i < chunkStart(c + 1, chunks); i++) {
+            count[digit(pass, order[i], keys)]++;
+         }
+      });
+
+      //offsets: all edges with a smaller digit, then same digit in earlier chunks
+      int offset = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+         int total = 0;
+         for (int c = 0; c < chunks; c++) {
+            total += counts[c][b];
+         }
+         if (total == size) {
+            return false;
+         }
+         for (int c = 0; c < chunks; c++) {
+            int count = counts[c][b];
+            counts[c][b] = offset;
+            offset += count;
+         }
+      }
+
+      IntStream.range(0, chunks).parallel().forEach(c -> {
+         int[] position = counts[c];
+         for (int i = chunkStart(c, chunks); i < chunkStart(c + 1, chunks); i++) {
+            out[position[digit(pass, order[i], keys)]++] = order[i];
+         }
+      });
+      return true;
+   }
+
+   private int chunkStart(int c, int chunks) {
+      return (int) ((long) size * c / chunks);
+   }
+}
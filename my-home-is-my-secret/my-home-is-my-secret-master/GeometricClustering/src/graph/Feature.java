@@ -20,7 +20,8 @@ public class Feature {
    private Polygon cell;
    
    /**
-    * The cluster to which the point belongs to (initially each cluster contains only one point)
+    * The cluster to which the point belongs to (initially each cluster contains only one point,
+    * which is created on first access)
     */
    private Cluster cluster;
    
@@ -33,10 +34,13 @@ public class Feature {
       centroid = c;
       cell = null;
       this.id = id;
-      cluster = new Cluster(this);
+      cluster = null;
    }
    
    public Cluster getCluster() {
+      if (cluster == null) {
+         cluster = new Cluster(this);
+      }
       return cluster;
    }
 
@@ -1,231 +1,423 @@
 package graph;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jump.feature.AttributeType;
-import com.vividsolutions.jump.feature.BasicFeature;
-import com.vividsolutions.jump.feature.FeatureCollection;
-import com.vividsolutions.jump.feature.FeatureDataset;
-import com.vividsolutions.jump.feature.FeatureSchema;
-import com.vividsolutions.jump.io.DriverProperties;
-import com.vividsolutions.jump.io.ShapefileWriter;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+
+import io.ClusterSnapshotWriter;
+import io.ShapefileStreamWriter;
+import io.ShapefileStreamWriter.Field;
 
 
 public class Graph {
   
    
-   //nodes represent clusters of buildings
-   //they are ordered by cardinality of the cluster and (secondarily) by x,y of center points
-   private Collection<Node> nodes;
-   private List<Edge> edges;
-   private HashSet<Cluster> clusters;
-   private List<Edge> clusterEdges;
+   //features of the points to be clustered, indexed by their id, which is used as 
+   //vertex number of the edges and as element id of the disjoint sets 
+   //(null for ids without a node, e.g., duplicate points)
+   private Feature[] features;
+   private int numNodes;
+   private EdgeTable edges;
+   private CsrAdjacency adjacency;
+   private List<Cluster> clusters;
+   
+   //indices (in edges) of the edges used for merging clusters
+   private int[] clusterEdges;
+   private int numClusterEdges;
+   
+   private DisjointSets sets;
+   
+   //for each feature id, the id of its cluster (set when clusters are materialized)
+   private int[] clusterIds;
+   
+   //if set, cluster cells are traced from the triangulation instead of a union of voronoi cells
+   private ClusterCellBuilder cellBuilder;
+   
+   //if set, precomputed cells of the clusters, indexed by cluster id
+   private Geometry[] clusterCells;
+   
+   //number of clusters whose geometries are computed in parallel before they are written
+   private static final int EXPORT_CHUNK_SIZE = 10000;
+   //number of characters of the cluster ids in the exported shapefiles
+   public static final int ID_LENGTH = 11;
+   
+   private static final int ADJACENCY_MAGIC = 0x4341444a; // "CADJ"
+   private static final int ADJACENCY_VERSION = 1;
    
    public Graph(Collection<Node> v, List<Edge> e) {
-      nodes = v;
+      this(toFeatureArray(v), toEdgeTable(e));
+   }
+   
+   public Graph(Collection<Node> v, EdgeTable e) {
+      this(toFeatureArray(v), e);
+   }
+   
+   /**
+    * creates a graph whose vertices are the features (numbered by id) and whose edges 
+    * are given by an edge table; the table is sorted once and not reordered afterwards
+    * @param f
+    * @param e
+    */
+   public Graph(Feature[] f, EdgeTable e) {
+      features = f;
       edges = e;
+      for (Feature u : features) {
+         if (u != null) {
+            numNodes++;
+         }
+      }
+      
+      edges.sort();
+      adjacency = new CsrAdjacency(features.length, edges);
+   }
+   
+   private static Feature[] toFeatureArray(Collection<Node> nodes) {
+      int n = 0;
+      for (Node u : nodes) {
+         n = Math.max(n, u.getFeature().getID() + 1);
+      }
+      Feature[] features = new Feature[n];
+      for (Node u : nodes) {
+         features[u.getFeature().getID()] = u.getFeature();
+      }
+      return features;
+   }
+   
+   private static EdgeTable toEdgeTable(List<Edge> edgeList) {
+      EdgeTable table = new EdgeTable(edgeList.size());
+      for (Edge e : edgeList) {
+         table.add(e.getSource().getFeature().getID(), e.getTarget().getFeature().getID(), e.getLength());
+      }
+      return table;
+   }
+   
+   public CsrAdjacency getAdjacency() {
+      return adjacency;
+   }
+   
+   public EdgeTable getEdges() {
+      return edges;
+   }
+   
+   public void setCellBuilder(ClusterCellBuilder cellBuilder) {
+      this.cellBuilder = cellBuilder;
+   }
+   
+   /**
+    * sets precomputed cells of the clusters (indexed by cluster id), e.g., for a clustering
+    * that was computed per tile
+    * @param cells
+    */
+   public void setClusterCells(Geometry[] cells) {
+      clusterCells = cells;
+   }
+   
+   /**
+    * returns the union of the voronoi cells of the features of cluster c
+    * @param c
+    * @return
+    */
+   public Geometry getVoronoiCell(Cluster c) {
+      if (clusterCells != null) {
+         return clusterCells[c.getID()];
+      }
+      if (cellBuilder != null) {
+         return cellBuilder.getCell(c, clusterIds);
+      }
+      return c.getVoronoiCell();
    }
       
    public void computeClusering(int minSize) {
-      clusters = new HashSet<Cluster>();
-      for (Node n : nodes) {
-         clusters.add(n.getFeature().getCluster());
-      }
+      computeClusering(minSize, new DisjointSets(features.length));
+   }
+   
+   /**
+    * computes a clustering starting from given clusters instead of single points 
+    * (feature i is initially in the cluster with id initialClusterIds[i]); clusters
+    * that already have minSize features are only merged with smaller clusters
+    * @param minSize
+    * @param initialClusterIds
+    */
+   public void computeClusering(int minSize, int[] initialClusterIds) {
+      computeClusering(minSize, new DisjointSets(initialClusterIds));
+   }
+   
+   private void computeClusering(int minSize, DisjointSets initialSets) {
+      sets = initialSets;
+      clusters = null;
       
-      clusterEdges = new LinkedList<Edge>();
+      clusterEdges = new int[Math.max(features.length - 1, 0)];
+      numClusterEdges = 0;
       
-      //iterate over edges in increasing order of edge lengths
-      Collections.sort(edges);
-      for (Edge e : edges) {
-         //System.out.println(e.getLength());
-         Cluster cluster1 = e.getSource().getFeature().getCluster();
-         Cluster cluster2 = e.getTarget().getFeature().getCluster();
-         if (cluster1 != cluster2 && (cluster1.size() < minSize || cluster2.size() < minSize)) {
-            //System.out.println("merge");
-            if (cluster1.size() < cluster2.size()) {
-               cluster2.union(cluster1);
-               clusters.remove(cluster1);
-            } else {
-               cluster1.union(cluster2);
-               clusters.remove(cluster2);
-            }
-            clusterEdges.add(e);
+      //iterate over edges in increasing order of edge lengths (the table is sorted)
+      for (int e = 0; e < edges.size(); e++) {
+         int root1 = sets.find(edges.getSource(e));
+         int root2 = sets.find(edges.getTarget(e));
+         if (root1 != root2 && (sets.size(root1) < minSize || sets.size(root2) < minSize)) {
+            //the larger cluster absorbs the smaller one (the source cluster on ties)
+            sets.unionRoots(root1, root2);
+            clusterEdges[numClusterEdges++] = e;
          } 
       }
    }
    
-   public void exportEdges(String filename) {
-      LinkedList<Edge> graphEdges = new LinkedList<Edge>();
-      for (Node n : nodes) {
-         for (Edge e : n.getIncidentEdges()) {
-            if (e.getSource().getID() < e.getTarget().getID()) {
-               graphEdges.add(e);
+   /**
+    * returns, for each feature id, the id of the cluster containing the feature
+    * @return
+    */
+   public int[] getClusterIds() {
+      getClusters();
+      return clusterIds;
+   }
+   
+   /**
+    * computes a geometry for every cluster of a list (in the order of the list); the clusters
+    * are independent, so the work is spread over the threads of the common fork-join pool
+    * @param clusters
+    * @param geometry
+    * @return
+    */
+   private static <T extends Geometry> List<T> computeInParallel(List<Cluster> clusters,
+         Function<Cluster, T> geometry) {
+      return clusters.parallelStream().map(geometry).collect(Collectors.toList());
+   }
+   
+   /**
+    * returns edge e of the edge table as a line string
+    * @param e
+    * @return
+    */
+   public LineString getEdgeAsLineString(int e) {
+      Coordinate[] coord = new Coordinate[2];
+      coord[0] = features[edges.getSource(e)].getCoord();
+      coord[1] = features[edges.getTarget(e)].getCoord();
+      return new LineString(new CoordinateArraySequence(coord), new GeometryFactory());
+   }
+   
+   /**
+    * returns the clusters of the last clustering, ordered by id; cluster 
+    * membership is only materialized on the first call after a clustering
+    * @return
+    */
+   public List<Cluster> getClusters() {
+      if (clusters == null) {
+         int[] roots = sets.getRoots();
+         clusterIds = roots;
+         Cluster[] byRoot = new Cluster[features.length];
+         clusters = new ArrayList<Cluster>(sets.getNumberOfSets());
+         for (int i = 0; i < features.length; i++) {
+            if (features[i] == null) {
+               continue;
+            }
+            Cluster c = byRoot[roots[i]];
+            if (c == null) {
+               c = new Cluster(roots[i]);
+               byRoot[roots[i]] = c;
+            }
+            c.add(features[i]);
+         }
+         for (Cluster c : byRoot) {
+            if (c != null) {
+               clusters.add(c);
             }
          }
       }
-      
+      return clusters;
+   }
+   
+   public void exportEdges(String filename) {
       if(filename.endsWith(".shp")) {
-         ShapefileWriter shp_output = new ShapefileWriter();
-         DriverProperties dpw = new DriverProperties(filename);
-         try {
-             FeatureSchema fs = new FeatureSchema();
-             fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-             LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-             
-             for (Edge e : graphEdges) {
-                 BasicFeature bf = new BasicFeature(fs);
-                 LineString s = e.getAsLineString();
-                 bf.setGeometry(s);
-                 myList.push(bf);
-             }    
-             
-             FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-             System.out.println("Shape written to " + filename);
-             shp_output.write(myFeatureCollection, dpw);
-             
+         try (ShapefileStreamWriter shp_output = new ShapefileStreamWriter(filename,
+               ShapefileStreamWriter.POLYLINE)) {
+            //every edge is listed in the rows of both of its vertices, take it from the first one
+            for (int u = 0; u < adjacency.getNumberOfVertices(); u++) {
+               for (int i = 0; i < adjacency.getDegree(u); i++) {
+                  if (u < adjacency.getNeighbor(u, i)) {
+                     shp_output.write(getEdgeAsLineString(adjacency.getEdgeIndex(u, i)));
+                  }
+               }
+            }
+            shp_output.finish();
+            System.out.println("Shape written to " + filename);
          } catch(Exception ex) { 
-             System.out.println("shp_write: " + ex);
+            System.out.println("shp_write: " + ex);
          }
-     }
-      
+      }
    }
    
    public void exportClusterEdges(String filename) {
       if(filename.endsWith(".shp")) {
-         ShapefileWriter shp_output = new ShapefileWriter();
-         DriverProperties dpw = new DriverProperties(filename);
-         try {
-             double d = 0.0;
-             FeatureSchema fs = new FeatureSchema();
-             fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-             LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-             
-             for (Edge e : clusterEdges) {
-                 BasicFeature bf = new BasicFeature(fs);
-                 LineString s = e.getAsLineString();
-                 d += s.getLength();
-                 bf.setGeometry(s);
-                 myList.push(bf);
-             }
-             System.out.println("Total length of cluster edges = " + d);
-             
-             FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-             System.out.println("Shape written to " + filename);
-             shp_output.write(myFeatureCollection, dpw);
-             
+         try (ShapefileStreamWriter shp_output = new ShapefileStreamWriter(filename,
+               ShapefileStreamWriter.POLYLINE)) {
+            double d = 0.0;
+            for (int i = 0; i < numClusterEdges; i++) {
+               LineString s = getEdgeAsLineString(clusterEdges[i]);
+               d += s.getLength();
+               shp_output.write(s);
+            }
+            System.out.println("Total length of cluster edges = " + d);
+            shp_output.finish();
+            System.out.println("Shape written to " + filename);
          } catch(Exception ex) { 
-             System.out.println("shp_write: " + ex);
+            System.out.println("shp_write: " + ex);
          }
-     }
+      }
    }
    
    public void exportClustersAsMultipoints(String filename) {
-       if(filename.endsWith(".shp")) {
-          ShapefileWriter shp_output = new ShapefileWriter();
-          DriverProperties dpw = new DriverProperties(filename);
-          try {
-              FeatureSchema fs = new FeatureSchema();
-              fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-              fs.addAttribute("myid", AttributeType.STRING);
-              LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-              
-              System.out.println("number of clusters: " + clusters.size());
-              int n = 0;
-              for (Cluster u : clusters) {
-                  BasicFeature bf = new BasicFeature(fs);
-                  MultiPoint mp = u.getAsMultiPoint();
-                  bf.setGeometry(mp);
-                  bf.setAttribute("myid", "" + u.getID());
-                  myList.push(bf);
-                  n += mp.getNumGeometries(); 
-              }
-              System.out.println("number of points: " + n);
-              System.out.println("number of points per cluster: " + n / (double) clusters.size());
-              
-              
-              FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-              System.out.println("Shape written to " + filename);
-              shp_output.write(myFeatureCollection, dpw);
-              
-          } catch(Exception ex) { 
-              System.out.println("shp_write: " + ex);
-          }
-      }
-  }
-
-
+      if(filename.endsWith(".shp")) {
+         try (ShapefileStreamWriter shp_output = new ShapefileStreamWriter(filename,
+               ShapefileStreamWriter.MULTIPOINT, Field.character("myid", ID_LENGTH))) {
+            List<Cluster> clusters = getClusters();
+            System.out.println("number of clusters: " + clusters.size());
+            int n = 0;
+            for (int from = 0; from < clusters.size(); from += EXPORT_CHUNK_SIZE) {
+               List<Cluster> chunk = clusters.subList(from, Math.min(from + EXPORT_CHUNK_SIZE, clusters.size()));
+               List<MultiPoint> multiPoints = computeInParallel(chunk, u -> u.getAsMultiPoint());
+               int i = 0;
+               for (Cluster u : chunk) {
+                  MultiPoint mp = multiPoints.get(i++);
+                  shp_output.write(mp, "" + u.getID());
+                  n += mp.getNumGeometries();
+               }
+            }
+            System.out.println("number of points: " + n);
+            System.out.println("number of points per cluster: " + n / (double) clusters.size());
+            shp_output.finish();
+            System.out.println("Shape written to " + filename);
+         } catch(Exception ex) { 
+            System.out.println("shp_write: " + ex);
+         }
+      }
+   }
 
    public void exportClustersAsConvexHulls(String filename) {
       if(filename.endsWith(".shp")) {
-         ShapefileWriter shp_output = new ShapefileWriter();
-         DriverProperties dpw = new DriverProperties(filename);
-         try {
-             FeatureSchema fs = new FeatureSchema();
-             double d = 0.0;
-             fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-             fs.addAttribute("myid", AttributeType.STRING);
-             LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-             
-             for (Cluster u : clusters) {
-                 BasicFeature bf = new BasicFeature(fs);
-                 Polygon chull = (Polygon) u.getAsMultiPoint().convexHull();
-                 bf.setGeometry(chull);
-                 bf.setAttribute("myid", "" + u.getID());
-                 myList.push(bf);
-                 d += chull.getLength();
-             }    
-             System.out.println("average length of convex hull = " + d / clusters.size());
-             
-             FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-             System.out.println("Shape written to " + filename);
-             shp_output.write(myFeatureCollection, dpw);
-             
+         try (ShapefileStreamWriter shp_output = new ShapefileStreamWriter(filename,
+               ShapefileStreamWriter.POLYGON, Field.character("myid", ID_LENGTH))) {
+            double d = 0.0;
+            List<Cluster> clusters = getClusters();
+            for (int from = 0; from < clusters.size(); from += EXPORT_CHUNK_SIZE) {
+               List<Cluster> chunk = clusters.subList(from, Math.min(from + EXPORT_CHUNK_SIZE, clusters.size()));
+               List<Polygon> hulls = computeInParallel(chunk, u -> (Polygon) u.getAsMultiPoint().convexHull());
+               int i = 0;
+               for (Cluster u : chunk) {
+                  Polygon chull = hulls.get(i++);
+                  shp_output.write(chull, "" + u.getID());
+                  d += chull.getLength();
+               }
+            }
+            System.out.println("average length of convex hull = " + d / clusters.size());
+            shp_output.finish();
+            System.out.println("Shape written to " + filename);
          } catch(Exception ex) { 
-             System.out.println("shp_write: " + ex);
+            System.out.println("shp_write: " + ex);
          }
-     }
+      }
    }
 
-
-
    public void exportClustersAsVoronoiCells(String filename) {
+      exportClustersAsVoronoiCells(filename, null);
+   }
+   
+   /**
+    * writes the merged voronoi cells of the clusters to a shapefile and, if snapshotFilename
+    * is not null, the cells together with the points of the clusters to a snapshot for the 
+    * trajectory truncation (see {@link ClusterSnapshotWriter}); every cell is computed once 
+    * for both files
+    * @param filename
+    * @param snapshotFilename
+    */
+   public void exportClustersAsVoronoiCells(String filename, String snapshotFilename) {
       if(filename.endsWith(".shp")) {
-         ShapefileWriter shp_output = new ShapefileWriter();
-         DriverProperties dpw = new DriverProperties(filename);
-         double d = 0.0;
-         try {
-             FeatureSchema fs = new FeatureSchema();
-             fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-             fs.addAttribute("myid", AttributeType.STRING);
-             LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-             
-             for (Cluster u : clusters) {
-                 BasicFeature bf = new BasicFeature(fs);
-                 Polygon cell = u.getVoronoiCell();
-                 bf.setGeometry(cell);
-                 bf.setAttribute("myid", "" + u.getID());
-                 myList.push(bf);
-                 d += cell.getLength();
-             }    
-             System.out.println("average length of voronoi cell boundary = " + d / (double) nodes.size() ); 
-             
-             FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-             System.out.println("Shape written to " + filename);
-             shp_output.write(myFeatureCollection, dpw);
-             
+         //the snapshot is only finished once all cells are written and the shapefile is finished, 
+         //so it is never older than the shapefile and never left behind incomplete
+         try (ClusterSnapshotWriter snapshot = snapshotFilename != null 
+               ? new ClusterSnapshotWriter(snapshotFilename) : null) {
+            try (ShapefileStreamWriter shp_output = new ShapefileStreamWriter(filename,
+                  ShapefileStreamWriter.POLYGON, Field.character("myid", ID_LENGTH))) {
+               double d = 0.0;
+               List<Cluster> clusters = getClusters();
+               for (int from = 0; from < clusters.size(); from += EXPORT_CHUNK_SIZE) {
+                  List<Cluster> chunk = clusters.subList(from, Math.min(from + EXPORT_CHUNK_SIZE, clusters.size()));
+                  List<Geometry> cells = computeInParallel(chunk, u -> getVoronoiCell(u));
+                  int i = 0;
+                  for (Cluster u : chunk) {
+                     Geometry cell = cells.get(i++);
+                     shp_output.write(cell, "" + u.getID());
+                     if (snapshot != null) {
+                        snapshot.write(u.getID(), u.getAsMultiPoint(), cell);
+                     }
+                     d += cell.getLength();
+                  }
+               }
+               System.out.println("average length of voronoi cell boundary = " + d / (double) numNodes );
+               shp_output.finish();
+            }
+            System.out.println("Shape written to " + filename);
+            if (snapshot != null) {
+               snapshot.finish();
+               System.out.println("Snapshot written to " + snapshotFilename);
+            }
          } catch(Exception ex) { 
-             System.out.println("shp_write: " + ex);
+            System.out.println("shp_write: " + ex);
          }
-     }
-      
+      }
    }
    
-   
+   /**
+    * writes the adjacency of the clusters: two clusters are adjacent if an edge of the graph 
+    * connects them (for the delaunay triangulation, if their merged voronoi cells share a 
+    * boundary). The file holds the number of pairs and the pairs (cluster id, id of an adjacent
+    * cluster), in increasing order and with both directions of every adjacency
+    * @param filename
+    * @throws IOException
+    */
+   public void exportClusterAdjacency(String filename) throws IOException {
+      int[] ids = getClusterIds();
+      long[] pairs = new long[2 * edges.size()];
+      int n = 0;
+      for (int e = 0; e < edges.size(); e++) {
+         int a = ids[edges.getSource(e)];
+         int b = ids[edges.getTarget(e)];
+         if (a != b) {
+            pairs[n++] = (long) a << 32 | b;
+            pairs[n++] = (long) b << 32 | a;
+         }
+      }
+      Arrays.parallelSort(pairs, 0, n);
+      
+      //clusters are usually connected by several edges, keep every pair once
+      int m = 0;
+      for (int i = 0; i < n; i++) {
+         if (m == 0 || pairs[i] != pairs[m - 1]) {
+            pairs[m++] = pairs[i];
+         }
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+         out.writeInt(ADJACENCY_MAGIC);
+         out.writeInt(ADJACENCY_VERSION);
+         out.writeInt(m);
+         for (int i = 0; i < m; i++) {
+            out.writeInt((int) (pairs[i] >>> 32));
+            out.writeInt((int) pairs[i]);
+         }
+      }
+      System.out.println("Adjacency of " + m / 2 + " pairs of clusters written to " + filename);
+   }
 }
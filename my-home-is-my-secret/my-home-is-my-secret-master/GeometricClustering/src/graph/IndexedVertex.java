@@ -0,0 +1,21 @@
+package graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.triangulate.quadedge.Vertex;
+
+/**
+ * A vertex of a triangulation that knows the id of the feature it was created for
+ */
+public class IndexedVertex extends Vertex {
+
+   private int index;
+
+   public IndexedVertex(Coordinate c, int index) {
+      super(c);
+      this.index = index;
+   }
+
+   public int getIndex() {
+      return index;
+   }
+}
@@ -11,12 +11,12 @@ public class Node implements Comparable<Node> {
    
    private int id;
    private Feature feature;
+   //created on demand (graphs built for clustering keep their adjacency in a CsrAdjacency)
    private LinkedList<Edge> incidentEdges;
 
    public Node() {
       maxId++;
       id = maxId;
-      incidentEdges = new LinkedList<Edge>(); 
    }
    
    public Feature getFeature() {
@@ -28,8 +28,6 @@ public class Node implements Comparable<Node> {
       id = maxId;
      
       feature = f;
-      
-      incidentEdges = new LinkedList<Edge>(); 
    }
    
    /**
@@ -38,6 +36,9 @@ public class Node implements Comparable<Node> {
     * @return
     */
    public Edge getEdge(Node u) {
+      if (incidentEdges == null) {
+         return null;
+      }
       for (Edge e : incidentEdges) {
          if (e.getSource() == u || e.getTarget() == u) {
             return e;
@@ -49,6 +50,9 @@ public class Node implements Comparable<Node> {
   
    
    public LinkedList<Edge> getIncidentEdges() {
+      if (incidentEdges == null) {
+         incidentEdges = new LinkedList<Edge>(); 
+      }
       return incidentEdges;
    }
    
@@ -85,7 +89,7 @@ public class Node implements Comparable<Node> {
 
 
    public void addEdge(Edge e) {
-      incidentEdges.add(e);
+      getIncidentEdges().add(e);
    }
 
    public void setVoronoiCell(Polygon p) {
@@ -0,0 +1,277 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+
+/**
+ * Clustering of large point sets on a grid of tiles that are processed in parallel.
+ *
+ * Every point is owned by the tile containing it. A tile is triangulated together with a
+ * halo of points of neighboring tiles (closer than the halo width to the tile), so that
+ * the triangulation edges and voronoi cells of its own points are (almost always) those of
+ * the global triangulation. The greedy clustering is run per tile on the edges between
+ * points of the tile. The clusters are then reconciled: the edges that cross a tile border
+ * are processed in increasing order with the same greedy rule, which merges clusters with
+ * less than k points (e.g., at the border of a tile) with clusters of neighboring tiles.
+ *
+ * Cells are computed per tile as well (the triangulation is recomputed, so that at any time
+ * only the triangulations of the tiles currently processed are kept in memory); cells of
+ * clusters that cross a tile border are the union of the parts from each tile.
+ */
+public class TiledClustering {
+
+   private List<Coordinate> points;
+   private int tilesX;
+   private int tilesY;
+   private double halo;
+   private Envelope extent;
+
+   //points of each tile (owned and halo points), in increasing order of id
+   private int[][] tilePoints;
+   //number of the tile owning each point
+   private int[] owner;
+
+   /**
+    * @param points the points to be clustered (the id of a point is its position in the list)
+    * @param tiles number of tiles in x and in y direction
+    * @param halo the width of the halo around each tile (if 0 or less, ten times the mean
+    *       distance of points is used)
+    */
+   public TiledClustering(List<Coordinate> points, int tiles, double halo) {
+      this.points = points;
+      tilesX = tiles;
+      tilesY = tiles;
+      extent = new Envelope();
+      for (Coordinate c : points) {
+         extent.expandToInclude(c);
+      }
+      if (halo <= 0) {
+         halo = 10.0 * Math.sqrt(extent.getArea() / Math.max(points.size(), 1));
+      }
+      this.halo = halo;
+      partition();
+   }
+
+   private void partition() {
+      int n = points.size();
+      int tiles = tilesX * tilesY;
+      owner = new int[n];
+      int[] count = new int[tiles];
+      for (int i = 0; i < n; i++) {
+         Coordinate c = points.get(i);
+         owner[i] = tile(column(c.x), row(c.y));
+         for (int tx = column(c.x - halo); tx <= column(c.x + halo); tx++) {
+            for (int ty = row(c.y - halo); ty <= row(c.y + halo); ty++) {
+               count[tile(tx, ty)]++;
+            }
+         }
+      }
+      tilePoints = new int[tiles][];
+      for (int t = 0; t < tiles; t++) {
+         tilePoints[t] = new int[count[t]];
+      }
+      Arrays.fill(count, 0);
+      for (int i = 0; i < n; i++) {
+         Coordinate c = points.get(i);
+         for (int tx = column(c.x - halo); tx <= column(c.x + halo); tx++) {
+            for (int ty = row(c.y - halo); ty <= row(c.y + halo); ty++) {
+               int t = tile(tx, ty);
+               tilePoints[t][count[t]++] = i;
+            }
+         }
+      }
+   }
+
+   private int column(double x) {
+      int column = (int) Math.floor((x - extent.getMinX()) / extent.getWidth() * tilesX);
+      return Math.max(0, Math.min(tilesX - 1, column));
+   }
+
+   private int row(double y) {
+      int row = (int) Math.floor((y - extent.getMinY()) / extent.getHeight() * tilesY);
+      return Math.max(0, Math.min(tilesY - 1, row));
+   }
+
+   private int tile(int column, int row) {
+      return row * tilesX + column;
+   }
+
+   public int getNumberOfTiles() {
+      return tilePoints.length;
+   }
+
+   /**
+    * computes a clustering with clusters of at least minSize points and the cells of the
+    * clusters; the result is returned as a graph (without edges) with the clusters set
+    * @param minSize
+    * @param gf
+    * @return
+    */
+   public Graph computeClusering(int minSize, GeometryFactory gf) {
+      int n = points.size();
+
+      //clustering within the tiles
+      List<TileResult> results = IntStream.range(0, getNumberOfTiles()).parallel()
+            .mapToObj(t -> clusterTile(t, minSize)).collect(Collectors.toList());
+
+      //reconciliation along the edges crossing tile borders
+      int[] labels = new int[n];
+      Feature[] features = new Feature[n];
+      int numCrossEdges = 0;
+      for (TileResult r : results) {
+         numCrossEdges += r.crossEdges.size();
+      }
+      EdgeTable crossEdges = new EdgeTable(numCrossEdges);
+      for (int t = 0; t < results.size(); t++) {
+         TileResult r = results.get(t);
+         int[] ids = tilePoints[t];
+         for (int i = 0; i < ids.length; i++) {
+            if (owner[ids[i]] == t) {
+               labels[ids[i]] = r.labels[i];
+               if (r.isNode[i]) {
+                  features[ids[i]] = new Feature(points.get(ids[i]), ids[i]);
+               }
+            }
+         }
+         EdgeTable e = r.crossEdges;
+         for (int i = 0; i < e.size(); i++) {
+            crossEdges.add(e.getSource(i), e.getTarget(i), e.getLength(i));
+         }
+      }
+      results = null;
+
+      Graph g = new Graph(features, crossEdges);
+      g.computeClusering(minSize, labels);
+      int[] clusterIds = g.getClusterIds();
+
+      //cells: parts of cells per tile, united for clusters of several tiles
+      HashMap<Integer, List<Geometry>> partsOfCluster = new HashMap<Integer, List<Geometry>>();
+      IntStream.range(0, getNumberOfTiles()).parallel().mapToObj(t -> computeCellParts(t, clusterIds, gf))
+            .forEachOrdered(tileParts -> {
+               for (Geometry part : tileParts) {
+                  partsOfCluster.computeIfAbsent((Integer) part.getUserData(), id -> new ArrayList<Geometry>())
+                        .add(part);
+               }
+            });
+      Geometry[] cells = new Geometry[n];
+      partsOfCluster.entrySet().parallelStream().forEach(e -> {
+         List<Geometry> parts = e.getValue();
+         if (parts.size() == 1) {
+            cells[e.getKey()] = parts.get(0);
+         } else {
+            List<Geometry> polygons = new ArrayList<Geometry>();
+            for (Geometry part : parts) {
+               for (int i = 0; i < part.getNumGeometries(); i++) {
+                  polygons.add(part.getGeometryN(i));
+               }
+            }
+            cells[e.getKey()] = CascadedPolygonUnion.union(polygons);
+         }
+      });
+
+      g.setClusterCells(cells);
+      return g;
+   }
+
+   /**
+    * result of the clustering of a single tile
+    */
+   private static class TileResult {
+      //for each point of the tile, the id of its cluster and whether it is a node of the triangulation
+      int[] labels;
+      boolean[] isNode;
+      //edges from points of the tile to points of other tiles (global ids)
+      EdgeTable crossEdges;
+   }
+
+   private TriangulationBuilder triangulate(int t) {
+      ArrayList<Coordinate> tileCoordinates = new ArrayList<Coordinate>(tilePoints[t].length);
+      for (int id : tilePoints[t]) {
+         tileCoordinates.add(points.get(id));
+      }
+      return new TriangulationBuilder(tileCoordinates);
+   }
+
+   private TileResult clusterTile(int t, int minSize) {
+      int[] ids = tilePoints[t];
+      TriangulationBuilder tb = triangulate(t);
+      //local ids are in the order of global ids, so the order of edges of equal length is the same as globally
+      EdgeTable edges = tb.getEdges();
+      edges.sort();
+
+      TileResult r = new TileResult();
+      r.crossEdges = new EdgeTable(16);
+      DisjointSets sets = new DisjointSets(ids.length);
+      for (int e = 0; e < edges.size(); e++) {
+         int u = edges.getSource(e);
+         int v = edges.getTarget(e);
+         boolean ownsU = owner[ids[u]] == t;
+         boolean ownsV = owner[ids[v]] == t;
+         if (ownsU && ownsV) {
+            int root1 = sets.find(u);
+            int root2 = sets.find(v);
+            if (root1 != root2 && (sets.size(root1) < minSize || sets.size(root2) < minSize)) {
+               sets.unionRoots(root1, root2);
+            }
+         } else if ((ownsU || ownsV) && (ownsU ? ids[u] < ids[v] : ids[v] < ids[u])) {
+            //a crossing edge is kept by the tile owning the endpoint with the smaller id
+            r.crossEdges.add(ids[u], ids[v], edges.getLength(e));
+         }
+      }
+
+      r.labels = new int[ids.length];
+      r.isNode = new boolean[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+         r.labels[i] = ids[sets.find(i)];
+         r.isNode[i] = tb.getFeatures()[i] != null;
+      }
+      return r;
+   }
+
+   /**
+    * computes, for each cluster with points in tile t, the union of the voronoi cells of
+    * these points (the cluster id is stored as user data of the geometry)
+    */
+   private List<Geometry> computeCellParts(int t, int[] clusterIds, GeometryFactory gf) {
+      int[] ids = tilePoints[t];
+      TriangulationBuilder tb = triangulate(t);
+      Feature[] features = tb.getFeatures();
+
+      //halo points are treated as points of other clusters, so every part is closed
+      int[] localClusterIds = new int[ids.length];
+      HashMap<Integer, Cluster> byId = new HashMap<Integer, Cluster>();
+      List<Cluster> tileClusters = new ArrayList<Cluster>();
+      for (int i = 0; i < ids.length; i++) {
+         localClusterIds[i] = -1;
+         if (owner[ids[i]] == t && features[i] != null) {
+            localClusterIds[i] = clusterIds[ids[i]];
+            Cluster c = byId.get(localClusterIds[i]);
+            if (c == null) {
+               c = new Cluster(localClusterIds[i]);
+               byId.put(localClusterIds[i], c);
+               tileClusters.add(c);
+            }
+            c.add(features[i]);
+         }
+      }
+
+      ClusterCellBuilder builder = new ClusterCellBuilder(tb, gf);
+      List<Geometry> parts = new ArrayList<Geometry>(tileClusters.size());
+      for (Cluster c : tileClusters) {
+         Geometry part = builder.getCell(c, localClusterIds);
+         part.setUserData(c.getID());
+         parts.add(part);
+      }
+      return parts;
+   }
+}
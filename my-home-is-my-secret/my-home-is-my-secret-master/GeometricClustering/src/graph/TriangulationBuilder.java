@@ -0,0 +1,229 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateList;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Triangle;
+import com.vividsolutions.jts.triangulate.IncrementalDelaunayTriangulator;
+import com.vividsolutions.jts.triangulate.quadedge.QuadEdge;
+import com.vividsolutions.jts.triangulate.quadedge.QuadEdgeSubdivision;
+import com.vividsolutions.jts.triangulate.quadedge.TriangleVisitor;
+import com.vividsolutions.jts.triangulate.quadedge.Vertex;
+
+/**
+ * Computes the Delaunay triangulation of a list of points and the graph used for clustering.
+ * The points are inserted as {@link IndexedVertex} objects, so the ids of the endpoints of
+ * every triangulation edge are read directly from the subdivision.
+ * 
+ * The subdivision is the same as the one of jts' DelaunayTriangulationBuilder: the points
+ * are inserted in x,y order and a point with the same coordinates as an earlier point of
+ * the list is skipped (its feature gets no node, as with a TreeSet of nodes). Null entries
+ * of the list are skipped as well, so that ids of points can be kept when points are removed.
+ */
+public class TriangulationBuilder {
+
+   //features indexed by id (the position of the point in the input list)
+   private Feature[] features;
+   private QuadEdgeSubdivision subdivision;
+   private Envelope extent;
+   private EdgeTable edges;
+
+   //for each vertex, an edge of the subdivision with this vertex as origin
+   private QuadEdge[] vertexEdges;
+   //for each edge of a triangle, the circumcentre of the triangle (null until computed)
+   private Map<QuadEdge, Vertex> circumcentres;
+
+   public TriangulationBuilder(List<Coordinate> points) {
+      int n = points.size();
+      features = new Feature[n];
+      vertexEdges = new QuadEdge[n];
+
+      IndexedVertex[] vertices = new IndexedVertex[n];
+      Envelope env = new Envelope();
+      int numVertices = 0;
+      for (int i = 0; i < n; i++) {
+         if (points.get(i) != null) {
+            vertices[numVertices++] = new IndexedVertex(points.get(i), i);
+            env.expandToInclude(points.get(i));
+         }
+      }
+      vertices = Arrays.copyOf(vertices, numVertices);
+      extent = env;
+
+      //stable sort: of several vertices with equal coordinates the one with the smallest id comes first
+      Arrays.sort(vertices, new Comparator<IndexedVertex>() {
+         @Override
+         public int compare(IndexedVertex v1, IndexedVertex v2) {
+            return v1.getCoordinate().compareTo(v2.getCoordinate());
+         }
+      });
+      int unique = 0;
+      for (int i = 0; i < numVertices; i++) {
+         if (unique == 0 || !vertices[i].getCoordinate().equals2D(vertices[unique - 1].getCoordinate())) {
+            vertices[unique++] = vertices[i];
+            int id = vertices[i].getIndex();
+            features[id] = new Feature(points.get(id), id);
+         }
+      }
+
+      subdivision = new QuadEdgeSubdivision(env, 0.0);
+      IncrementalDelaunayTriangulator triangulator = new IncrementalDelaunayTriangulator(subdivision);
+      triangulator.insertSites(Arrays.asList(vertices).subList(0, unique));
+
+      @SuppressWarnings("rawtypes") // jts QuadEdgeSubdivision only returns raw type
+      List primaryEdges = subdivision.getPrimaryEdges(false);
+      edges = new EdgeTable(primaryEdges.size());
+      for (Object o : primaryEdges) {
+         QuadEdge qe = (QuadEdge) o;
+         int source = ((IndexedVertex) qe.orig()).getIndex();
+         int target = ((IndexedVertex) qe.dest()).getIndex();
+         edges.add(source, target, qe.orig().getCoordinate().distance(qe.dest().getCoordinate()));
+         if (vertexEdges[source] == null) {
+            vertexEdges[source] = qe;
+         }
+         if (vertexEdges[target] == null) {
+            vertexEdges[target] = qe.sym();
+         }
+      }
+   }
+
+   /**
+    * returns the features indexed by id (null for points skipped as duplicates)
+    * @return
+    */
+   public Feature[] getFeatures() {
+      return features;
+   }
+
+   /**
+    * returns the edges of the triangulation, with vertices given by feature ids
+    * @return
+    */
+   public EdgeTable getEdges() {
+      return edges;
+   }
+
+   public QuadEdgeSubdivision getSubdivision() {
+      return subdivision;
+   }
+   
+   /**
+    * returns the envelope of the points, which determines the frame of the subdivision
+    * @return
+    */
+   public Envelope getExtent() {
+      return extent;
+   }
+   
+   /**
+    * returns true if the vertex of the given feature is adjacent to the frame of the 
+    * subdivision, i.e., it lies on the convex hull of the points
+    * @param id
+    * @return
+    */
+   public boolean isAdjacentToFrame(int id) {
+      QuadEdge start = vertexEdges[id];
+      if (start == null) {
+         return false;
+      }
+      QuadEdge qe = start;
+      do {
+         if (!(qe.dest() instanceof IndexedVertex)) {
+            return true;
+         }
+         qe = qe.oNext();
+      } while (qe != start);
+      return false;
+   }
+
+   /**
+    * returns an edge of the subdivision with origin at the vertex of the given feature
+    * (null if the feature has no vertex or no triangulation edge)
+    * @param id
+    * @return
+    */
+   public QuadEdge getVertexEdge(int id) {
+      return vertexEdges[id];
+   }
+
+   /**
+    * computes the circumcentre of every triangle of the subdivision (including frame 
+    * triangles), the corners of the voronoi cells
+    */
+   public void computeCircumcentres() {
+      if (circumcentres == null) {
+         final Map<QuadEdge, Vertex> corners = new IdentityHashMap<QuadEdge, Vertex>();
+         subdivision.visitTriangles(new TriangleVisitor() {
+            @Override
+            public void visit(QuadEdge[] triEdges) {
+               Coordinate a = triEdges[0].orig().getCoordinate();
+               Coordinate b = triEdges[1].orig().getCoordinate();
+               Coordinate c = triEdges[2].orig().getCoordinate();
+               Vertex ccVertex = new Vertex(Triangle.circumcentre(a, b, c));
+               for (int i = 0; i < 3; i++) {
+                  corners.put(triEdges[i], ccVertex);
+               }
+            }
+         }, true);
+         circumcentres = corners;
+      }
+   }
+
+   /**
+    * returns the circumcentre of the triangle of the given edge, a corner of the voronoi cell
+    * of qe.orig() (the vertex jts' getVoronoiCellPolygon reads as origin of qe.rot(); 
+    * computeCircumcentres must have been called before)
+    * @param qe
+    * @return
+    */
+   public Vertex getCircumcentre(QuadEdge qe) {
+      return circumcentres.get(qe);
+   }
+
+   /**
+    * computes the voronoi cell of every feature that has a vertex in the triangulation
+    * @param gf
+    */
+   public void computeVoronoiCells(GeometryFactory gf) {
+      for (int i = 0; i < features.length; i++) {
+         if (vertexEdges[i] != null) {
+            features[i].setVoronoiCell(getVoronoiCell(i, gf));
+         }
+      }
+   }
+
+   /**
+    * returns the voronoi cell of the given feature, the same polygon as jts' 
+    * getVoronoiCellPolygon (null if the feature has no vertex in the triangulation)
+    * @param id
+    * @param gf
+    * @return
+    */
+   public Polygon getVoronoiCell(int id, GeometryFactory gf) {
+      if (vertexEdges[id] == null) {
+         return null;
+      }
+      computeCircumcentres();
+      CoordinateList ring = new CoordinateList();
+      QuadEdge qe = vertexEdges[id];
+      do {
+         ring.add(getCircumcentre(qe).getCoordinate(), false);
+         qe = qe.oPrev();
+      } while (qe != vertexEdges[id]);
+      ring.closeRing();
+      if (ring.size() < 4) {
+         ring.add(ring.get(ring.size() - 1), true);
+      }
+      Polygon p = gf.createPolygon(gf.createLinearRing(ring.toCoordinateArray()), null);
+      p.setUserData(vertexEdges[id].orig().getCoordinate());
+      return p;
+   }
+}
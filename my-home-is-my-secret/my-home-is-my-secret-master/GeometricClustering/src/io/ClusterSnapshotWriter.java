@@ -0,0 +1,265 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+
+import index.PackedHilbertRTree;
+
+/**
+ * Writes the clusters of a clustering (their points and cells) cluster by cluster into a
+ * single binary file that the trajectory truncation maps into memory instead of parsing
+ * cells.shp and multipoints.shp.
+ *
+ * All values are little endian. The file starts with a header (magic, version, number of
+ * clusters, offsets of the table and of the tree and length of the file), followed by the
+ * data of the clusters in the order they were written: the x and then the y coordinates of
+ * the points of a cluster, and for its cell the number of rings of each polygon and the
+ * number of points of each ring (padded to 8 bytes) and the interleaved x and y coordinates
+ * of the rings (for each polygon shell first). Then follows a table of 64 bytes per cluster,
+ * ordered by id: id, number of points, offset of the points, number of rings, number of
+ * polygons, offset of the rings and the bounding box of the cell. The file ends with a
+ * {@link PackedHilbertRTree} of the bounding boxes of the cells, so a cell can be located
+ * and tested against its bounding box without reading its rings and without building an
+ * index.
+ *
+ * The file is written next to its final name and only replaces the file of that name when
+ * {@link #finish()} succeeds. A writer that is closed without being finished (e.g., because
+ * writing the clusters failed) deletes the partial file and the previous snapshot, so no
+ * snapshot is left that does not match the clusters.
+ */
+public class ClusterSnapshotWriter implements AutoCloseable {
+
+	public static final int MAGIC = 0x4e534c43; // "CLSN" in little endian
+	public static final int VERSION = 2;
+	public static final int HEADER_LENGTH = 40;
+	public static final int ENTRY_LENGTH = 64;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Path path;
+	private Path partialPath;
+	private FileChannel channel;
+	private boolean finished;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	// length of the file written so far
+	private long length = HEADER_LENGTH;
+
+	// table entries in the order the clusters were written, with (id, number of the entry)
+	// to sort them by id
+	private ByteBuffer table = ByteBuffer.allocate(16 * ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+	private long[] keys = new long[16];
+	private int numClusters;
+	// ids and bounding boxes of the cells, for the tree
+	private int[] cellIds = new int[16];
+	private double[] cellEnvelopes = new double[64];
+	private int numCells;
+
+	/**
+	 * @param filename
+	 * @throws IOException
+	 */
+	public ClusterSnapshotWriter(String filename) throws IOException {
+		path = Paths.get(filename);
+		partialPath = Paths.get(filename + ".partial");
+		channel = FileChannel.open(partialPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		// the header is written with the final values by finish
+		channel.position(HEADER_LENGTH);
+	}
+
+	/**
+	 * writes a cluster (clusters can be written in any order, but every id only once)
+	 * @param id
+	 * @param points the points of the cluster (e.g., a MultiPoint)
+	 * @param cell the cell of the cluster (ignored if it is not a Polygon or MultiPolygon)
+	 * @throws IOException
+	 */
+	public void write(int id, Geometry points, Geometry cell) throws IOException {
+		Coordinate[] coords = points.getCoordinates();
+		long pointsOffset = length;
+		for (Coordinate c : coords) {
+			putDouble(c.x);
+		}
+		for (Coordinate c : coords) {
+			putDouble(c.y);
+		}
+
+		Polygon[] polygons = new Polygon[0];
+		Envelope env = new Envelope();
+		if (cell instanceof Polygonal && !cell.isEmpty()) {
+			polygons = new Polygon[cell.getNumGeometries()];
+			for (int i = 0; i < polygons.length; i++) {
+				polygons[i] = (Polygon) cell.getGeometryN(i);
+			}
+			env = cell.getEnvelopeInternal();
+		}
+		List<Coordinate[]> rings = new ArrayList<Coordinate[]>();
+		for (Polygon polygon : polygons) {
+			rings.add(polygon.getExteriorRing().getCoordinates());
+			for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+				rings.add(polygon.getInteriorRingN(i).getCoordinates());
+			}
+		}
+		long cellOffset = length;
+		for (Polygon polygon : polygons) {
+			putInt(1 + polygon.getNumInteriorRing());
+		}
+		for (Coordinate[] ring : rings) {
+			putInt(ring.length);
+		}
+		if ((polygons.length + rings.size()) % 2 != 0) {
+			putInt(0);
+		}
+		for (Coordinate[] ring : rings) {
+			for (Coordinate c : ring) {
+				putDouble(c.x);
+				putDouble(c.y);
+			}
+		}
+
+		if (table.remaining() < ENTRY_LENGTH) {
+			ByteBuffer larger = ByteBuffer.allocate(2 * table.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+			table.flip();
+			larger.put(table);
+			table = larger;
+			keys = Arrays.copyOf(keys, 2 * keys.length);
+		}
+		table.putInt(id);
+		table.putInt(coords.length);
+		table.putLong(pointsOffset);
+		table.putInt(rings.size());
+		table.putInt(polygons.length);
+		table.putLong(cellOffset);
+		// an empty box (min > max) for clusters without a cell
+		table.putDouble(env.isNull() ? Double.POSITIVE_INFINITY : env.getMinX());
+		table.putDouble(env.isNull() ? Double.POSITIVE_INFINITY : env.getMinY());
+		table.putDouble(env.isNull() ? Double.NEGATIVE_INFINITY : env.getMaxX());
+		table.putDouble(env.isNull() ? Double.NEGATIVE_INFINITY : env.getMaxY());
+		keys[numClusters] = (long) id << 32 | numClusters;
+		numClusters++;
+		if (polygons.length > 0) {
+			if (numCells == cellIds.length) {
+				cellIds = Arrays.copyOf(cellIds, 2 * numCells);
+				cellEnvelopes = Arrays.copyOf(cellEnvelopes, 8 * numCells);
+			}
+			cellIds[numCells] = id;
+			cellEnvelopes[4 * numCells] = env.getMinX();
+			cellEnvelopes[4 * numCells + 1] = env.getMinY();
+			cellEnvelopes[4 * numCells + 2] = env.getMaxX();
+			cellEnvelopes[4 * numCells + 3] = env.getMaxY();
+			numCells++;
+		}
+	}
+
+	public int getNumberOfClusters() {
+		return numClusters;
+	}
+
+	private void putDouble(double value) throws IOException {
+		if (buffer.remaining() < 8) {
+			flush();
+		}
+		buffer.putDouble(value);
+		length += 8;
+	}
+
+	private void putInt(int value) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush();
+		}
+		buffer.putInt(value);
+		length += 4;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * writes the table, the tree and the header and replaces the file with the given name
+	 * by the written file
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		try {
+			// the table, ordered by id
+			long tableOffset = length;
+			Arrays.sort(keys, 0, numClusters);
+			ByteBuffer entry = table.duplicate();
+			for (int i = 0; i < numClusters; i++) {
+				if (i > 0 && keys[i] >>> 32 == keys[i - 1] >>> 32) {
+					throw new IOException("cluster " + (keys[i] >>> 32) + " written twice");
+				}
+				int start = (int) keys[i] * ENTRY_LENGTH;
+				entry.limit(start + ENTRY_LENGTH);
+				entry.position(start);
+				if (buffer.remaining() < ENTRY_LENGTH) {
+					flush();
+				}
+				buffer.put(entry);
+				length += ENTRY_LENGTH;
+			}
+			flush();
+
+			// the tree of the cells
+			long treeOffset = length;
+			PackedHilbertRTree tree = PackedHilbertRTree.build(Arrays.copyOf(cellEnvelopes, 4 * numCells),
+					Arrays.copyOf(cellIds, numCells));
+			ByteBuffer treeBuffer = ByteBuffer.allocate(tree.getLengthInBytes()).order(ByteOrder.LITTLE_ENDIAN);
+			tree.write(treeBuffer);
+			treeBuffer.flip();
+			while (treeBuffer.hasRemaining()) {
+				channel.write(treeBuffer);
+			}
+			length += tree.getLengthInBytes();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(numClusters);
+			header.putInt(0);
+			header.putLong(tableOffset);
+			header.putLong(treeOffset);
+			header.putLong(length);
+			header.flip();
+			channel.write(header, 0);
+		} finally {
+			channel.close();
+		}
+		Files.move(partialPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		finished = true;
+	}
+
+	/**
+	 * deletes the written file and the previous snapshot unless the writer was finished
+	 */
+	@Override
+	public void close() throws IOException {
+		if (finished) {
+			return;
+		}
+		channel.close();
+		Files.deleteIfExists(partialPath);
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,206 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.io.DriverProperties;
+import com.vividsolutions.jump.io.ShapefileReader;
+
+import graph.Cluster;
+import graph.ClusterCellBuilder;
+import graph.ClusteringState;
+import graph.Graph;
+import graph.TriangulationBuilder;
+import io.ClusterSnapshotWriter;
+import io.ShapefileStreamWriter;
+import io.ShapefileStreamWriter.Field;
+
+/**
+ * Updates the clustering of a previous run after some points have been added or removed.
+ *
+ * Clusters that lost a point are dissolved into single points, added points start as
+ * single points, and all other clusters are kept. The greedy clustering is then run
+ * starting from these clusters, so only dissolved and added points are merged (among
+ * each other or into neighboring clusters) and every cluster again has at least k
+ * points. Cluster ids of kept clusters do not change.
+ *
+ * The triangulation is computed anew (jts' subdivision does not support removing points),
+ * but geometries are only recomputed for clusters whose members or voronoi cells changed;
+ * the features of all other clusters are copied from the previous cells.shp and
+ * multipoints.shp. The snapshot of the clusters is written anew in the same pass.
+ */
+public class IncrementalUpdate {
+
+	public static void run(String dir, List<Coordinate> added, List<Coordinate> removed) throws IOException {
+		ClusteringState state = ClusteringState.read(dir + File.separator + "clustering.state");
+		int k = state.getK();
+		Coordinate[] oldPoints = state.getPoints();
+		int[] oldClusterIds = state.getClusterIds();
+		int nOld = oldPoints.length;
+
+		// apply the delta; ids of existing points are kept, added points get new ids
+		HashMap<Coordinate, Integer> ids = new HashMap<Coordinate, Integer>();
+		for (int i = 0; i < nOld; i++) {
+			if (oldPoints[i] != null && !ids.containsKey(oldPoints[i])) {
+				ids.put(oldPoints[i], i);
+			}
+		}
+		ArrayList<Coordinate> points = new ArrayList<Coordinate>(Arrays.asList(oldPoints));
+		boolean[] dissolved = new boolean[nOld];
+		for (Coordinate c : removed) {
+			Integer i = ids.remove(c);
+			if (i == null) {
+				System.out.println("not found: " + c);
+			} else {
+				points.set(i, null);
+				if (oldClusterIds[i] >= 0) {
+					dissolved[oldClusterIds[i]] = true;
+				}
+			}
+		}
+		points.addAll(added);
+		System.out.println("added: " + added.size() + ", removed: " + removed.size());
+
+		GeometryFactory gf = new GeometryFactory();
+		TriangulationBuilder tb = new TriangulationBuilder(points);
+		Graph g = new Graph(tb.getFeatures(), tb.getEdges());
+		g.setCellBuilder(new ClusterCellBuilder(tb, gf));
+
+		// kept clusters are the initial clusters, all other points start alone
+		int[] initialClusterIds = new int[points.size()];
+		for (int i = 0; i < initialClusterIds.length; i++) {
+			initialClusterIds[i] = i;
+			if (i < nOld && points.get(i) != null && oldClusterIds[i] >= 0 && !dissolved[oldClusterIds[i]]) {
+				initialClusterIds[i] = oldClusterIds[i];
+			}
+		}
+		g.computeClusering(k, initialClusterIds);
+		int[] clusterIds = g.getClusterIds();
+
+		// a cluster has to be rewritten if its members changed or the voronoi cell of a member
+		// changed, i.e., the neighbors of the member in the triangulation changed
+		boolean extentChanged = !state.getExtent().equals(tb.getExtent());
+		boolean[] changed = new boolean[points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			if (tb.getFeatures()[i] == null) {
+				continue;
+			}
+			if (i >= nOld || oldClusterIds[i] != clusterIds[i] || initialClusterIds[i] != clusterIds[i]
+					|| !state.hasSameNeighbors(i, g.getAdjacency())
+					|| (extentChanged && (state.isAdjacentToFrame(i) || tb.isAdjacentToFrame(i)))) {
+				changed[clusterIds[i]] = true;
+			}
+		}
+		// dissolved clusters always count as changed (the cluster with the same id, if any, lost points)
+		for (int i = 0; i < nOld; i++) {
+			if (dissolved[i]) {
+				changed[i] = true;
+			}
+		}
+
+		List<Cluster> changedClusters = new ArrayList<Cluster>();
+		boolean[] exists = new boolean[points.size()];
+		for (Cluster c : g.getClusters()) {
+			exists[c.getID()] = true;
+			if (changed[c.getID()]) {
+				changedClusters.add(c);
+			}
+		}
+		System.out.println("clusters: " + g.getClusters().size() + ", changed: " + changedClusters.size());
+
+		List<Geometry> cells = changedClusters.parallelStream().map(c -> g.getVoronoiCell(c))
+				.collect(Collectors.toList());
+		update(dir, changedClusters, cells, changed, exists);
+		g.exportClusterAdjacency(dir + File.separator + "cells.adjacency");
+
+		ClusteringState.of(k, points.toArray(new Coordinate[0]), tb, g)
+				.write(dir + File.separator + "clustering.state");
+	}
+
+	/**
+	 * rewrites cells.shp and multipoints.shp with one feature per cluster and the snapshot
+	 * of the clusters in one pass: features of unchanged clusters are copied, features of
+	 * changed clusters are replaced by the given cells and their points
+	 */
+	private static void update(String dir, List<Cluster> changedClusters, List<Geometry> cells, boolean[] changed,
+			boolean[] exists) throws IOException {
+		String cellsFile = dir + File.separator + "cells.shp";
+		String multiPointsFile = dir + File.separator + "multipoints.shp";
+		String snapshotFile = dir + File.separator + "clusters.snapshot";
+
+		// the previous features are read completely before the files are rewritten
+		FeatureCollection previousCells = read(cellsFile);
+		HashMap<Integer, Geometry> previousMultiPoints = new HashMap<Integer, Geometry>();
+		@SuppressWarnings("rawtypes") // jump FeatureCollection return raw iterator
+		Iterator it = read(multiPointsFile).iterator();
+		while (it.hasNext()) {
+			Feature f = (Feature) it.next();
+			previousMultiPoints.put(getId(f), f.getGeometry());
+		}
+
+		// the snapshot is finished after the shapefiles, so that it is not older
+		try (ClusterSnapshotWriter snapshot = new ClusterSnapshotWriter(snapshotFile)) {
+			try (ShapefileStreamWriter cellOutput = new ShapefileStreamWriter(cellsFile, ShapefileStreamWriter.POLYGON,
+					Field.character("myid", Graph.ID_LENGTH));
+					ShapefileStreamWriter multiPointOutput = new ShapefileStreamWriter(multiPointsFile,
+							ShapefileStreamWriter.MULTIPOINT, Field.character("myid", Graph.ID_LENGTH))) {
+				it = previousCells.iterator();
+				int kept = 0;
+				while (it.hasNext()) {
+					Feature f = (Feature) it.next();
+					int id = getId(f);
+					if (id < exists.length && exists[id] && !changed[id]) {
+						Geometry multiPoint = previousMultiPoints.get(id);
+						if (multiPoint == null) {
+							throw new IOException(multiPointsFile + ": no feature for cluster " + id);
+						}
+						write(cellOutput, multiPointOutput, snapshot, id, f.getGeometry(), multiPoint);
+						kept++;
+					}
+				}
+				System.out.println(kept + " clusters kept");
+
+				int i = 0;
+				for (Cluster c : changedClusters) {
+					write(cellOutput, multiPointOutput, snapshot, c.getID(), cells.get(i++), c.getAsMultiPoint());
+				}
+				cellOutput.finish();
+				multiPointOutput.finish();
+			}
+			System.out.println("Shape written to " + cellsFile);
+			System.out.println("Shape written to " + multiPointsFile);
+			snapshot.finish();
+			System.out.println("Snapshot written to " + snapshotFile);
+		}
+	}
+
+	private static void write(ShapefileStreamWriter cellOutput, ShapefileStreamWriter multiPointOutput,
+			ClusterSnapshotWriter snapshot, int id, Geometry cell, Geometry multiPoint) throws IOException {
+		cellOutput.write(cell, "" + id);
+		multiPointOutput.write(multiPoint, "" + id);
+		snapshot.write(id, multiPoint, cell);
+	}
+
+	private static FeatureCollection read(String filename) throws IOException {
+		try {
+			return new ShapefileReader().read(new DriverProperties(filename));
+		} catch (Exception ex) {
+			throw new IOException(filename + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	private static int getId(Feature f) {
+		return Integer.parseInt(f.getAttribute("myid").toString().trim());
+	}
+}
@@ -3,39 +3,75 @@ package main;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.MultiPoint;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.triangulate.DelaunayTriangulationBuilder;
-
-import graph.Edge;
-import graph.Feature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.io.DriverProperties;
+import com.vividsolutions.jump.io.ShapefileReader;
+
+import graph.ClusterCellBuilder;
+import graph.ClusteringState;
+import graph.EdgeTable;
 import graph.Graph;
-import graph.Node;
+import graph.TiledClustering;
+import graph.TriangulationBuilder;
 import mapViewer.LineMapObject;
 import mapViewer.ListLayer;
 import mapViewer.MapFrame;
-import mapViewer.MapObject;
 import mapViewer.PointMapObject;
 
 public class Main {
 
+	private static final String USAGE = "usage: [k | k1,k2,... | from..to] [path] [--tiles=n] [--halo=d] [--incremental] [--view]";
+
 	public static void main(String[] args) {
 
-		// define parameter k for clustering (either args[0] or 4 by default)
-		int k = 4;
+		// options start with "--", all other arguments are positional
+		boolean incremental = false;
+		boolean view = false;
+		int tiles = 1;
+		double halo = 0;
+		ArrayList<String> positional = new ArrayList<String>();
+		for (String arg : args) {
+			try {
+				if (arg.equals("--incremental")) {
+					incremental = true;
+				} else if (arg.equals("--view")) {
+					view = true;
+				} else if (arg.startsWith("--tiles=")) {
+					tiles = Integer.parseInt(arg.substring("--tiles=".length()));
+				} else if (arg.startsWith("--halo=")) {
+					halo = Double.parseDouble(arg.substring("--halo=".length()));
+				} else {
+					positional.add(arg);
+				}
+			} catch (NumberFormatException ex) {
+				System.out.println(arg + ": " + ex.getMessage());
+				System.out.println(USAGE);
+				return;
+			}
+		}
+		args = positional.toArray(new String[0]);
+
+		// define parameter k for clustering (either args[0] or 4 by default);
+		// a list ("2,4,8") or range ("2..20") of values runs a sweep over all of them
+		int[] ks = { 4 };
 		if (args.length > 0) {
-			k = Integer.parseInt(args[0]);
+			try {
+				ks = parseK(args[0]);
+			} catch (IllegalArgumentException ex) {
+				System.out.println("k: " + ex.getMessage());
+				System.out.println(USAGE);
+				return;
+			}
 		}
 
 		// define output path (either args[1] or working directory by default)
@@ -49,103 +85,201 @@ public class Main {
 
 		System.out.println(path);
 
-		MapFrame myMapFrame = new MapFrame("IGGGIS - ListLayer", true);
-		myMapFrame.setPreferredSize(new Dimension(1000, 600));
-		myMapFrame.pack();
-
-		// layer 1 - points
-		ListLayer l1 = ListLayer.readFromShapefile(
-				path + File.separator + "input" + File.separator + "centroids-utm.shp", Color.DARK_GRAY);
-		myMapFrame.getMap().addLayer(l1, 1);
-
-		ArrayList<Coordinate> cl = new ArrayList<Coordinate>();
-
-		TreeSet<Node> nodes = new TreeSet<Node>();
-		int id = 0;
-		for (MapObject myMapObject : l1.getMyObjects()) {
-			if (myMapObject instanceof PointMapObject) {
-				Point p = ((PointMapObject) myMapObject).getMyPoint();
-				for (Coordinate c : p.getCoordinates()) {
-					cl.add(c);
-					Node n = new Node(new Feature(c, id));
-					nodes.add(n);
-					id++;
-				}
+		// update the clustering of the previous run with the points of input/added.shp and
+		// input/removed.shp (k is taken from the previous run)
+		if (incremental) {
+			String dir = path + File.separator + "input";
+			try {
+				IncrementalUpdate.run(dir, readPoints(dir + File.separator + "added.shp"),
+						readPoints(dir + File.separator + "removed.shp"));
+			} catch (IOException ex) {
+				System.out.println("incremental update: " + ex);
 			}
-		} // now all vertices have been collected in list cl
+			return;
+		}
 
-		ArrayList<Edge> edgeList = new ArrayList<Edge>();
+		// the clustering runs headless; the map viewer is only opened after the run if
+		// requested with "--view"
+		ArrayList<Coordinate> cl = new ArrayList<Coordinate>(
+				readPoints(path + File.separator + "input" + File.separator + "centroids-utm.shp"));
+		// now all vertices have been collected in list cl, the id of a point is its
+		// position in cl
 
 		System.out.println("n points:" + cl.size());
-		System.out.println("n nodes:" + nodes.size());
 
-		// triangulate points (triangulation will be used as input graph for clustering)
 		GeometryFactory gf = new GeometryFactory();
-		MultiPoint mp = gf.createMultiPoint(cl.toArray(new Coordinate[0]));
-		DelaunayTriangulationBuilder dtb = new DelaunayTriangulationBuilder();
-		dtb.setSites(mp);
-		GeometryCollection edges = (GeometryCollection) dtb.getEdges(gf);
-
-		// compute voronoi cells (will be exported as polygonal represenations of
-		// clusters)
-		@SuppressWarnings("rawtypes") // jts QuadEdgeSubdivision only returns raw type
-		List vd = dtb.getSubdivision().getVoronoiCellPolygons(gf);
-		for (Object o : vd) {
-			Polygon p = (Polygon) o;
-			Coordinate center = (Coordinate) p.getUserData();
-			Node nQuery = new Node(new Feature(center, 0));
-			Node nResult = nodes.floor(nQuery);
-			if (nQuery.equals(nResult)) {
-				nResult.setVoronoiCell(p);
-			} else {
-				System.out.println("ERROR");
+		new File(path + File.separator + "output").mkdir();
+
+		// large point sets: cluster tiles of the extent in parallel instead of triangulating
+		// all points at once
+		if (tiles > 1) {
+			TiledClustering tc = new TiledClustering(cl, tiles, halo);
+			for (int k : ks) {
+				System.out.println("start clustering (k=" + k + ", " + tc.getNumberOfTiles() + " tiles)");
+				Graph g = tc.computeClusering(k, gf);
+				System.out.println("stop clustering");
+				String dir = exportDirectory(path, k, ks.length > 1);
+				g.exportClustersAsMultipoints(dir + File.separator + "multipoints.shp");
+				g.exportClustersAsConvexHulls(dir + File.separator + "hulls.shp");
+				g.exportClustersAsVoronoiCells(dir + File.separator + "cells.shp",
+						dir + File.separator + "clusters.snapshot");
+			}
+			if (view) {
+				showResults(cl, null);
 			}
+			return;
 		}
 
-		// create layer l2 for display of edges
-		ListLayer l2 = new ListLayer(Color.BLACK);
+		// triangulate points (triangulation will be used as input graph for clustering)
+		TriangulationBuilder tb = new TriangulationBuilder(cl);
+		EdgeTable edges = tb.getEdges();
+
+		System.out.println("n edges:" + edges.size());
+
+		// clustering
+		System.out.println("construct graph");
+		Graph g = new Graph(tb.getFeatures(), edges);
 
-		System.out.println("n edges:" + edges.getNumGeometries());
-		System.out.println("n voronoi cells:" + vd.size());
+		// merged voronoi cells (exported as polygonal represenations of clusters) are
+		// traced from the triangulation
+		g.setCellBuilder(new ClusterCellBuilder(tb, gf));
 
-		// create edges and add them to layer l2
-		for (int i = 0; i < edges.getNumGeometries(); i++) {
-			LineString edge = (LineString) edges.getGeometryN(i);
-			LineMapObject pmo = new LineMapObject(edge);
-			l2.add(pmo);
+		// the triangulation, the sorted edges and the circumcentres of the graph are
+		// reused for every value of k
+		for (int k : ks) {
+			System.out.println("start clustering (k=" + k + ")");
+			g.computeClusering(k);
+			System.out.println("stop clustering");
+
+			String dir = exportDirectory(path, k, ks.length > 1);
+			exportResults(g, dir);
+
+			// state for later incremental updates
+			try {
+				ClusteringState.of(k, cl.toArray(new Coordinate[0]), tb, g)
+						.write(dir + File.separator + "clustering.state");
+			} catch (IOException ex) {
+				System.out.println("state_write: " + ex);
+			}
+		}
 
-			Coordinate source = edge.getCoordinateN(0);
-			Coordinate target = edge.getCoordinateN(1);
+		if (view) {
+			showResults(cl, g);
+		}
+	}
 
-			Node sourceNode = nodes.floor(new Node(new Feature(source, 0)));
-			Node targetNode = nodes.floor(new Node(new Feature(target, 0)));
+	/**
+	 * opens the map viewer with the points and (if a graph is given) the edges of the
+	 * triangulation
+	 * 
+	 * @param points
+	 * @param g
+	 */
+	private static void showResults(List<Coordinate> points, Graph g) {
+		MapFrame myMapFrame = new MapFrame("IGGGIS - ListLayer", true);
+		myMapFrame.setPreferredSize(new Dimension(1000, 600));
+		myMapFrame.pack();
 
-			Edge e = new Edge(sourceNode, targetNode);
-			e.setLength(source.distance(target));
-			edgeList.add(e);
-			sourceNode.addEdge(e);
-			targetNode.addEdge(e);
+		// layer 1 - points
+		GeometryFactory gf = new GeometryFactory();
+		ListLayer l1 = new ListLayer(Color.DARK_GRAY);
+		for (Coordinate c : points) {
+			l1.add(new PointMapObject(gf.createPoint(c)));
 		}
+		myMapFrame.getMap().addLayer(l1, 1);
 
-		myMapFrame.getMap().addLayer(l2, 2);
+		// layer 2 - edges
+		if (g != null) {
+			ListLayer l2 = new ListLayer(Color.BLACK);
+			for (int i = 0; i < g.getEdges().size(); i++) {
+				l2.add(new LineMapObject(g.getEdgeAsLineString(i)));
+			}
+			myMapFrame.getMap().addLayer(l2, 2);
+		}
 		myMapFrame.setVisible(true);
+	}
 
-		// clustering
-		System.out.println("construct graph");
-		Graph g = new Graph(nodes, edgeList);
-		System.out.println("start clustering");
-		g.computeClusering(k);
-		System.out.println("stop clustering");
+	/**
+	 * returns the directory for the results of parameter k: the input folder of the
+	 * truncation for a single k, output/k<k> for a sweep
+	 */
+	private static String exportDirectory(String path, int k, boolean sweep) {
+		if (!sweep) {
+			return path + File.separator + "input";
+		}
+		String dir = path + File.separator + "output" + File.separator + "k" + k;
+		new File(dir).mkdir();
+		return dir;
+	}
 
-		System.out.println("n nodes:" + nodes.size());
+	private static void exportResults(Graph g, String dir) {
+		g.exportClustersAsMultipoints(dir + File.separator + "multipoints.shp");
+		g.exportClusterEdges(dir + File.separator + "clusteredges.shp");
+		g.exportEdges(dir + File.separator + "graphedges.shp");
+		g.exportClustersAsConvexHulls(dir + File.separator + "hulls.shp");
+		g.exportClustersAsVoronoiCells(dir + File.separator + "cells.shp",
+				dir + File.separator + "clusters.snapshot");
+		try {
+			g.exportClusterAdjacency(dir + File.separator + "cells.adjacency");
+		} catch (IOException ex) {
+			System.out.println("adjacency_write: " + ex);
+		}
+	}
 
-		// export results
-		new File(path + File.separator + "output").mkdir();
-		g.exportClustersAsMultipoints(path + File.separator + "input" + File.separator + "multipoints.shp");
-		g.exportClusterEdges(path + File.separator + "input" + File.separator + "clusteredges.shp");
-		g.exportEdges(path + File.separator + "input" + File.separator + "graphedges.shp");
-		g.exportClustersAsConvexHulls(path + File.separator + "input" + File.separator + "hulls.shp");
-		g.exportClustersAsVoronoiCells(path + File.separator + "input" + File.separator + "cells.shp");
+	/**
+	 * reads the coordinates of all points of a shapefile (an empty list if the file does
+	 * not exist)
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	static List<Coordinate> readPoints(String filename) {
+		ArrayList<Coordinate> points = new ArrayList<Coordinate>();
+		if (!new File(filename).exists()) {
+			return points;
+		}
+		try {
+			FeatureCollection fc = new ShapefileReader().read(new DriverProperties(filename));
+			@SuppressWarnings("rawtypes") // jump FeatureCollection return raw iterator
+			Iterator it = fc.iterator();
+			while (it.hasNext()) {
+				Feature f = (Feature) it.next();
+				for (Coordinate c : f.getGeometry().getCoordinates()) {
+					points.add(c);
+				}
+			}
+		} catch (Exception ex) {
+			System.out.println("shp_read: " + ex);
+		}
+		return points;
+	}
 
+	/**
+	 * parses a single value of k, a comma separated list of values or a range
+	 * "from..to"
+	 * 
+	 * @param s
+	 * @return
+	 * @throws IllegalArgumentException if a value is not a number or a range is reversed
+	 */
+	private static int[] parseK(String s) {
+		if (s.contains("..")) {
+			int from = Integer.parseInt(s.substring(0, s.indexOf("..")).trim());
+			int to = Integer.parseInt(s.substring(s.indexOf("..") + 2).trim());
+			if (to < from) {
+				throw new IllegalArgumentException("empty range " + s);
+			}
+			int[] ks = new int[to - from + 1];
+			for (int i = 0; i < ks.length; i++) {
+				ks[i] = from + i;
+			}
+			return ks;
+		}
+		String[] values = s.split(",");
+		int[] ks = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ks[i] = Integer.parseInt(values[i].trim());
+		}
+		return ks;
 	}
 }
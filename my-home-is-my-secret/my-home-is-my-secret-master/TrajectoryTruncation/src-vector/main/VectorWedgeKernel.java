@@ -0,0 +1,52 @@
+package main;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The wedge test of {@link PackedCluster#countPointsInWedge} on as many points per
+ * instruction as the preferred vector shape of the machine holds.
+ *
+ * Every lane computes the same products, sums and comparisons as the scalar loop (without
+ * fused multiply-add), so a point inside the wedge by more than the guard band is counted
+ * exactly when the scalar loop counts it. Points within the band and the points after the
+ * last full vector are tested with the scalar loop.
+ *
+ * Needs the incubating vector API: compile and run with "--add-modules jdk.incubator.vector".
+ * PackedCluster uses the scalar loop if this class cannot be loaded.
+ */
+class VectorWedgeKernel implements PackedCluster.WedgeKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public int count(double[] x, double[] y, double cx, double cy, double dx, double dy, double cosMaxDif,
+			double sinMaxDif, double maxDif) {
+		int counter = 0;
+		int bound = SPECIES.loopBound(x.length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i).sub(cx);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i).sub(cy);
+			DoubleVector dot = vx.mul(dx).add(vy.mul(dy));
+			DoubleVector cross = vy.mul(dx).sub(vx.mul(dy)).abs();
+			DoubleVector f = dot.mul(sinMaxDif).sub(cross.mul(cosMaxDif));
+			DoubleVector band = dot.abs().add(cross).mul(PackedCluster.GUARD);
+			VectorMask<Double> inside = f.compare(VectorOperators.GT, band);
+			counter += inside.trueCount();
+			VectorMask<Double> boundary = f.compare(VectorOperators.GE, band.neg()).andNot(inside);
+			if (boundary.anyTrue()) {
+				for (int j = 0; j < SPECIES.length(); j++) {
+					if (boundary.laneIsSet(j)) {
+						counter += PackedCluster.countInWedge(x, y, i + j, i + j + 1, cx, cy, dx, dy, cosMaxDif,
+								sinMaxDif, maxDif);
+					}
+				}
+			}
+		}
+		return counter + PackedCluster.countInWedge(x, y, i, x.length, cx, cy, dx, dy, cosMaxDif, sinMaxDif,
+				maxDif);
+	}
+}
@@ -0,0 +1,425 @@
+package index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A static R-tree of items given by an id and a bounding box, packed into two flat arrays.
+ *
+ * The items are sorted by the Hilbert value of the centers of their boxes and grouped into
+ * leaves of nodeSize items, the leaves into nodes of nodeSize leaves, and so on up to a
+ * single root. All boxes (items first, then the nodes level by level, the root last) are
+ * stored in one double array (minX, minY, maxX, maxY per box), the ids of the items and
+ * the position of the first child of every node in one int array. The tree is built once
+ * (in parallel for large inputs) and cannot be changed afterwards.
+ *
+ * Queries report the ids of the items whose boxes intersect a box, contain a point or are
+ * crossed by a segment to a {@link Visitor} and allocate no objects. The arrays are
+ * written to and read from a buffer as they are, so a stored tree is loaded without being
+ * built again. A tree can be queried from several threads.
+ */
+public class PackedHilbertRTree {
+
+	public static final int DEFAULT_NODE_SIZE = 16;
+
+	// number of items from which the tree is built in parallel
+	private static final int PARALLEL_THRESHOLD = 1 << 14;
+	// number of cells of the grid for the Hilbert values in each dimension
+	private static final int HILBERT_MAX = (1 << 16) - 1;
+
+	/**
+	 * receives the ids of the items found by a query
+	 */
+	public interface Visitor {
+		/**
+		 * @param id the id of an item
+		 * @return false to stop the query
+		 */
+		boolean visit(int id);
+	}
+
+	private int nodeSize;
+	private int numItems;
+	// minX, minY, maxX, maxY of the items and nodes
+	private double[] boxes;
+	// ids of the items, positions of the first children of the nodes
+	private int[] index;
+	// position after the last box of each level (level 0 are the items)
+	private int[] levelBounds;
+
+	private PackedHilbertRTree() {
+	}
+
+	/**
+	 * builds a tree with {@link #DEFAULT_NODE_SIZE} children per node
+	 * @param envelopes minX, minY, maxX, maxY of each item
+	 * @param ids the ids of the items
+	 * @return
+	 */
+	public static PackedHilbertRTree build(double[] envelopes, int[] ids) {
+		return build(envelopes, ids, DEFAULT_NODE_SIZE);
+	}
+
+	/**
+	 * builds a tree
+	 * @param envelopes minX, minY, maxX, maxY of each item
+	 * @param ids the ids of the items
+	 * @param nodeSize the maximum number of children of a node (at least 2)
+	 * @return
+	 */
+	public static PackedHilbertRTree build(double[] envelopes, int[] ids, int nodeSize) {
+		if (envelopes.length != 4 * ids.length || nodeSize < 2) {
+			throw new IllegalArgumentException("4 values per envelope and at least 2 children per node");
+		}
+		PackedHilbertRTree tree = new PackedHilbertRTree();
+		int n = ids.length;
+		tree.nodeSize = nodeSize;
+		tree.numItems = n;
+
+		// number of boxes per level: items, then nodes up to a single root
+		int[] bounds = new int[16];
+		int numLevels = 0;
+		int numBoxes = n;
+		bounds[numLevels++] = n;
+		int levelSize = n;
+		while (levelSize > 1 || numLevels == 1) {
+			levelSize = (levelSize + nodeSize - 1) / nodeSize;
+			if (levelSize == 0) {
+				break; // no items, no nodes
+			}
+			numBoxes += levelSize;
+			if (numLevels == bounds.length) {
+				bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+			}
+			bounds[numLevels++] = numBoxes;
+		}
+		tree.levelBounds = Arrays.copyOf(bounds, numLevels);
+		tree.boxes = new double[4 * numBoxes];
+		tree.index = new int[numBoxes];
+		if (n == 0) {
+			return tree;
+		}
+		boolean parallel = n >= PARALLEL_THRESHOLD;
+
+		// extent of the centers of the items
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			double x = (envelopes[4 * i] + envelopes[4 * i + 2]) / 2;
+			double y = (envelopes[4 * i + 1] + envelopes[4 * i + 3]) / 2;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		double scaleX = maxX > minX ? HILBERT_MAX / (maxX - minX) : 0;
+		double scaleY = maxY > minY ? HILBERT_MAX / (maxY - minY) : 0;
+
+		// sort keys: Hilbert value (32 bits) and number of the item (31 bits)
+		long[] keys = new long[n];
+		double x0 = minX;
+		double y0 = minY;
+		range(0, n, parallel).forEach(i -> {
+			int hx = (int) (scaleX * ((envelopes[4 * i] + envelopes[4 * i + 2]) / 2 - x0));
+			int hy = (int) (scaleY * ((envelopes[4 * i + 1] + envelopes[4 * i + 3]) / 2 - y0));
+			keys[i] = hilbert(hx, hy) << 31 | i;
+		});
+		if (parallel) {
+			Arrays.parallelSort(keys);
+		} else {
+			Arrays.sort(keys);
+		}
+		range(0, n, parallel).forEach(pos -> {
+			int i = (int) (keys[pos] & 0x7fffffffL);
+			System.arraycopy(envelopes, 4 * i, tree.boxes, 4 * pos, 4);
+			tree.index[pos] = ids[i];
+		});
+
+		// nodes, level by level
+		for (int level = 1; level < numLevels; level++) {
+			int childStart = level == 1 ? 0 : tree.levelBounds[level - 2];
+			int childEnd = tree.levelBounds[level - 1];
+			int start = childEnd;
+			range(start, tree.levelBounds[level], parallel && childEnd - childStart >= PARALLEL_THRESHOLD)
+					.forEach(pos -> {
+						int first = childStart + (pos - start) * nodeSize;
+						int last = Math.min(first + nodeSize, childEnd);
+						double[] b = tree.boxes;
+						double nMinX = Double.POSITIVE_INFINITY;
+						double nMinY = Double.POSITIVE_INFINITY;
+						double nMaxX = Double.NEGATIVE_INFINITY;
+						double nMaxY = Double.NEGATIVE_INFINITY;
+						for (int c = first; c < last; c++) {
+							nMinX = Math.min(nMinX, b[4 * c]);
+							nMinY = Math.min(nMinY, b[4 * c + 1]);
+							nMaxX = Math.max(nMaxX, b[4 * c + 2]);
+							nMaxY = Math.max(nMaxY, b[4 * c + 3]);
+						}
+						b[4 * pos] = nMinX;
+						b[4 * pos + 1] = nMinY;
+						b[4 * pos + 2] = nMaxX;
+						b[4 * pos + 3] = nMaxY;
+						tree.index[pos] = first;
+					});
+		}
+		return tree;
+	}
+
+	private static IntStream range(int from, int to, boolean parallel) {
+		IntStream s = IntStream.range(from, to);
+		return parallel ? s.parallel() : s;
+	}
+
+	/**
+	 * returns the position of (x, y) on the Hilbert curve through a grid of 2^16 x 2^16
+	 * cells (the bit-parallel algorithm of "Fast Hilbert curve generation, sorting, and
+	 * range queries" by rawrunprotected)
+	 */
+	static long hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int A = a | (b >>> 1);
+		int B = (a >>> 1) ^ a;
+		int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+		a = A;
+		b = B;
+		c = C;
+		d = D;
+		A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+		B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+		C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+		D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+		a = A;
+		b = B;
+		c = C;
+		d = D;
+		A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+		B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+		C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+		D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+		a = A;
+		b = B;
+		c = C;
+		d = D;
+		C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+		D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+		a = C ^ (C >>> 1);
+		b = D ^ (D >>> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (0xFFFF ^ (i0 | a));
+		return (interleave(i1) << 1 | interleave(i0)) & 0xffffffffL;
+	}
+
+	// spreads the lower 16 bits of v to the even bits
+	private static long interleave(int v) {
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v & 0xffffffffL;
+	}
+
+	/**
+	 * reports the ids of the items whose boxes intersect the query box
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param visitor
+	 * @return false if the visitor stopped the query
+	 */
+	public boolean query(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+		if (numItems == 0) {
+			return true;
+		}
+		int root = index.length - 1;
+		if (!intersects(root, minX, minY, maxX, maxY)) {
+			return true;
+		}
+		return search(levelBounds.length - 1, root, minX, minY, maxX, maxY, visitor);
+	}
+
+	/**
+	 * reports the ids of the items whose boxes contain (x, y)
+	 * @param x
+	 * @param y
+	 * @param visitor
+	 * @return false if the visitor stopped the query
+	 */
+	public boolean query(double x, double y, Visitor visitor) {
+		return query(x, y, x, y, visitor);
+	}
+
+	/**
+	 * reports the ids of the items whose boxes, enlarged by margin on every side, intersect
+	 * the segment from (x0, y0) to (x1, y1)
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param margin
+	 * @param visitor
+	 * @return false if the visitor stopped the query
+	 */
+	public boolean querySegment(double x0, double y0, double x1, double y1, double margin, Visitor visitor) {
+		if (numItems == 0) {
+			return true;
+		}
+		int root = index.length - 1;
+		if (!crosses(root, x0, y0, x1 - x0, y1 - y0, margin)) {
+			return true;
+		}
+		return searchSegment(levelBounds.length - 1, root, x0, y0, x1 - x0, y1 - y0, margin, visitor);
+	}
+
+	private boolean searchSegment(int level, int pos, double x0, double y0, double dx, double dy, double margin,
+			Visitor visitor) {
+		int first = index[pos];
+		int last = Math.min(first + nodeSize, levelBounds[level - 1]);
+		for (int c = first; c < last; c++) {
+			if (!crosses(c, x0, y0, dx, dy, margin)) {
+				continue;
+			}
+			if (level == 1) {
+				if (!visitor.visit(index[c])) {
+					return false;
+				}
+			} else if (!searchSegment(level - 1, c, x0, y0, dx, dy, margin, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// whether (x0, y0) + t (dx, dy) for some t in [0, 1] lies in the enlarged box at pos (the
+	// parameter range of the segment is clipped to the slab of each dimension)
+	private boolean crosses(int pos, double x0, double y0, double dx, double dy, double margin) {
+		double[] b = boxes;
+		double from = 0;
+		double to = 1;
+		for (int dim = 0; dim < 2; dim++) {
+			double p = dim == 0 ? x0 : y0;
+			double d = dim == 0 ? dx : dy;
+			double min = b[4 * pos + dim] - margin;
+			double max = b[4 * pos + 2 + dim] + margin;
+			if (d == 0) {
+				if (p < min || p > max) {
+					return false;
+				}
+			} else {
+				double t0 = (min - p) / d;
+				double t1 = (max - p) / d;
+				from = Math.max(from, Math.min(t0, t1));
+				to = Math.min(to, Math.max(t0, t1));
+			}
+		}
+		return from <= to;
+	}
+
+	// visits the children of the node at pos on the given level (at least 1)
+	private boolean search(int level, int pos, double minX, double minY, double maxX, double maxY,
+			Visitor visitor) {
+		int first = index[pos];
+		int last = Math.min(first + nodeSize, levelBounds[level - 1]);
+		for (int c = first; c < last; c++) {
+			if (!intersects(c, minX, minY, maxX, maxY)) {
+				continue;
+			}
+			if (level == 1) {
+				if (!visitor.visit(index[c])) {
+					return false;
+				}
+			} else if (!search(level - 1, c, minX, minY, maxX, maxY, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean intersects(int pos, double minX, double minY, double maxX, double maxY) {
+		double[] b = boxes;
+		return b[4 * pos] <= maxX && b[4 * pos + 1] <= maxY && b[4 * pos + 2] >= minX && b[4 * pos + 3] >= minY;
+	}
+
+	/**
+	 * returns the number of items
+	 * @return
+	 */
+	public int size() {
+		return numItems;
+	}
+
+	public int getNodeSize() {
+		return nodeSize;
+	}
+
+	/**
+	 * returns the number of bytes {@link #write(ByteBuffer)} writes
+	 * @return
+	 */
+	public int getLengthInBytes() {
+		// header, boxes, level bounds and index (each padded to 8 bytes)
+		return 16 + 8 * boxes.length + 8 * ((levelBounds.length + 1) / 2) + 8 * ((index.length + 1) / 2);
+	}
+
+	/**
+	 * writes the tree at the position of a buffer (in the byte order of the buffer)
+	 * @param b
+	 */
+	public void write(ByteBuffer b) {
+		b.putInt(nodeSize);
+		b.putInt(numItems);
+		b.putInt(levelBounds.length);
+		b.putInt(index.length);
+		b.asDoubleBuffer().put(boxes);
+		b.position(b.position() + 8 * boxes.length);
+		b.asIntBuffer().put(levelBounds);
+		b.position(b.position() + 8 * ((levelBounds.length + 1) / 2));
+		b.asIntBuffer().put(index);
+		b.position(b.position() + 8 * ((index.length + 1) / 2));
+	}
+
+	/**
+	 * reads a tree written with {@link #write(ByteBuffer)} from the position of a buffer
+	 * (in the byte order of the buffer)
+	 * @param b
+	 * @return
+	 * @throws IllegalArgumentException if the buffer does not hold a valid tree
+	 */
+	public static PackedHilbertRTree read(ByteBuffer b) {
+		PackedHilbertRTree tree = new PackedHilbertRTree();
+		tree.nodeSize = b.getInt();
+		tree.numItems = b.getInt();
+		int numLevels = b.getInt();
+		int numBoxes = b.getInt();
+		if (tree.nodeSize < 2 || tree.numItems < 0 || numLevels < 1 || numBoxes < tree.numItems
+				|| 4L * numBoxes * 8 > b.remaining()) {
+			throw new IllegalArgumentException("not a packed Hilbert R-tree");
+		}
+		tree.boxes = new double[4 * numBoxes];
+		b.asDoubleBuffer().get(tree.boxes);
+		b.position(b.position() + 8 * tree.boxes.length);
+		tree.levelBounds = new int[numLevels];
+		b.asIntBuffer().get(tree.levelBounds);
+		b.position(b.position() + 8 * ((numLevels + 1) / 2));
+		tree.index = new int[numBoxes];
+		b.asIntBuffer().get(tree.index);
+		b.position(b.position() + 8 * ((numBoxes + 1) / 2));
+		if (tree.levelBounds[0] != tree.numItems || tree.levelBounds[numLevels - 1] != numBoxes) {
+			throw new IllegalArgumentException("not a packed Hilbert R-tree");
+		}
+		return tree;
+	}
+}
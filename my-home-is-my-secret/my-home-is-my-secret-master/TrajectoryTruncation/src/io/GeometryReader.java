@@ -0,0 +1,21 @@
+package io;
+
+import java.io.IOException;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A source of geometries that are read one after the other.
+ */
+public interface GeometryReader extends AutoCloseable {
+
+	/**
+	 * returns the next geometry (null at the end)
+	 * @return
+	 * @throws IOException
+	 */
+	Geometry next() throws IOException;
+
+	@Override
+	void close() throws IOException;
+}
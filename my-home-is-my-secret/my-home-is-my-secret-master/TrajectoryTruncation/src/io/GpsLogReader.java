@@ -0,0 +1,410 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Reads a GPS log in csv format (a header line, then one record per line with a timestamp,
+ * a latitude and a longitude in WGS84 degrees, e.g., "2019-10-21 13:45:24+00;48.81;2.14")
+ * and returns it as tracks in projected coordinates.
+ *
+ * A new track starts at a new day (the date of the timestamps as written) and after a gap
+ * of more than a given time between consecutive records. Tracks of a single record are
+ * skipped.
+ *
+ * The records are parsed directly from the bytes of the file (no string per line or
+ * field), collected in batches of primitive arrays and projected batch by batch. Lines
+ * that cannot be parsed are skipped.
+ */
+public class GpsLogReader implements GeometryReader {
+
+	private static final int BATCH_SIZE = 8192;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15 };
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+	// whether the channel is exhausted, and whether all records have been parsed
+	private boolean endOfInput;
+	private boolean endOfFile;
+	private TransverseMercator projection;
+	private GeometryFactory gf;
+	private long maxGapMillis;
+
+	// columns of timestamp, latitude and longitude, and the separator of the columns
+	private int timeColumn = -1;
+	private int latColumn = -1;
+	private int lonColumn = -1;
+	private byte separator = ';';
+
+	// current batch of records
+	private int batchSize;
+	private long[] times = new long[BATCH_SIZE];
+	private int[] days = new int[BATCH_SIZE];
+	private double[] lats = new double[BATCH_SIZE];
+	private double[] lons = new double[BATCH_SIZE];
+	private double[] xs = new double[BATCH_SIZE];
+	private double[] ys = new double[BATCH_SIZE];
+	// the date (days since 1970-01-01) of the last parsed timestamp, as written
+	private int parsedDay;
+
+	// the track that is currently collected
+	private double[] trackX = new double[256];
+	private double[] trackY = new double[256];
+	private int trackSize;
+	private long lastTime;
+	private int lastDay;
+
+	private ArrayDeque<LineString> tracks = new ArrayDeque<LineString>();
+
+	private long numRecords;
+	private long numSkippedLines;
+	private long numSkippedTracks;
+
+	/**
+	 * @param filename the name of the csv file
+	 * @param projection the projection of the coordinates
+	 * @param gf the factory for the tracks
+	 * @param maxGapSeconds the maximum time between consecutive records of a track
+	 * @throws IOException
+	 */
+	public GpsLogReader(String filename, TransverseMercator projection, GeometryFactory gf, double maxGapSeconds)
+			throws IOException {
+		this.projection = projection;
+		this.gf = gf;
+		maxGapMillis = (long) (maxGapSeconds * 1000);
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		buffer.flip();
+		readHeader(filename);
+	}
+
+	private void readHeader(String filename) throws IOException {
+		int end = nextLine();
+		if (end < 0) {
+			throw new IOException(filename + " is empty");
+		}
+		int start = buffer.position();
+		// byte order mark of utf-8
+		if (end - start >= 3 && buffer.get(start) == (byte) 0xef && buffer.get(start + 1) == (byte) 0xbb
+				&& buffer.get(start + 2) == (byte) 0xbf) {
+			start += 3;
+		}
+		String header = new String(buffer.array(), start, end - start, StandardCharsets.UTF_8).trim();
+		buffer.position(Math.min(end + 1, buffer.limit()));
+		if (header.indexOf(';') < 0 && header.indexOf(',') >= 0) {
+			separator = ',';
+		}
+		String[] names = header.split(separator == ';' ? ";" : ",");
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].trim().toLowerCase().replace("\"", "");
+			if (name.equals("timestamp") || name.equals("time")) {
+				timeColumn = i;
+			} else if (name.equals("lat") || name.equals("latitude")) {
+				latColumn = i;
+			} else if (name.equals("lon") || name.equals("lng") || name.equals("longitude")) {
+				lonColumn = i;
+			}
+		}
+		if (timeColumn < 0 || latColumn < 0 || lonColumn < 0) {
+			throw new IOException(filename + ": columns timestamp, lat and lon expected, found " + header);
+		}
+	}
+
+	/**
+	 * returns the next track (null at the end of the file)
+	 */
+	@Override
+	public Geometry next() throws IOException {
+		while (tracks.isEmpty() && !endOfFile) {
+			readBatch();
+			projection.project(lats, lons, batchSize, xs, ys);
+			for (int i = 0; i < batchSize; i++) {
+				// new day, gap or time going backwards
+				if (trackSize > 0
+						&& (days[i] != lastDay || times[i] - lastTime > maxGapMillis || times[i] < lastTime)) {
+					endTrack();
+				}
+				if (trackSize == trackX.length) {
+					trackX = Arrays.copyOf(trackX, 2 * trackSize);
+					trackY = Arrays.copyOf(trackY, 2 * trackSize);
+				}
+				trackX[trackSize] = xs[i];
+				trackY[trackSize] = ys[i];
+				trackSize++;
+				lastTime = times[i];
+				lastDay = days[i];
+			}
+			if (endOfFile && trackSize > 0) {
+				endTrack();
+			}
+		}
+		return tracks.poll();
+	}
+
+	private void endTrack() {
+		if (trackSize < 2) {
+			numSkippedTracks++;
+		} else {
+			Coordinate[] coords = new Coordinate[trackSize];
+			for (int i = 0; i < trackSize; i++) {
+				coords[i] = new Coordinate(trackX[i], trackY[i]);
+			}
+			tracks.add(gf.createLineString(coords));
+		}
+		trackSize = 0;
+	}
+
+	/**
+	 * parses the next (at most BATCH_SIZE) records
+	 */
+	private void readBatch() throws IOException {
+		batchSize = 0;
+		while (batchSize < BATCH_SIZE) {
+			int end = nextLine();
+			if (end < 0) {
+				endOfFile = true;
+				return;
+			}
+			if (parseRecord(buffer.position(), end)) {
+				batchSize++;
+				numRecords++;
+			}
+			buffer.position(Math.min(end + 1, buffer.limit()));
+		}
+	}
+
+	/**
+	 * parses the record in bytes [start, end) of the buffer into the batch; returns false if
+	 * the line is empty or cannot be parsed
+	 */
+	private boolean parseRecord(int start, int end) {
+		byte[] b = buffer.array();
+		while (end > start && (b[end - 1] == '\r' || b[end - 1] == ' ')) {
+			end--;
+		}
+		if (end == start) {
+			return false;
+		}
+		long time = Long.MIN_VALUE;
+		double lat = Double.NaN;
+		double lon = Double.NaN;
+		int column = 0;
+		int from = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || b[i] == separator) {
+				if (column == timeColumn) {
+					time = parseTime(b, from, i);
+					days[batchSize] = parsedDay;
+				} else if (column == latColumn) {
+					lat = parseDecimal(b, from, i);
+				} else if (column == lonColumn) {
+					lon = parseDecimal(b, from, i);
+				}
+				column++;
+				from = i + 1;
+			}
+		}
+		if (time == Long.MIN_VALUE || Double.isNaN(lat) || Double.isNaN(lon) || Math.abs(lat) > 90
+				|| Math.abs(lon) > 180) {
+			numSkippedLines++;
+			return false;
+		}
+		times[batchSize] = time;
+		lats[batchSize] = lat;
+		lons[batchSize] = lon;
+		return true;
+	}
+
+	/**
+	 * parses a timestamp "yyyy-MM-dd HH:mm:ss[.SSS][Z|+HH[:mm]|-HH[:mm]]" (also with 'T'
+	 * between date and time) to milliseconds since 1970-01-01 UTC; returns Long.MIN_VALUE if
+	 * it cannot be parsed
+	 */
+	private long parseTime(byte[] b, int from, int to) {
+		while (from < to && b[from] == ' ') {
+			from++;
+		}
+		if (to - from < 19 || b[from + 4] != '-' || b[from + 7] != '-' || b[from + 13] != ':'
+				|| b[from + 16] != ':') {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(b, from, 4);
+		int month = digits(b, from + 5, 2);
+		int day = digits(b, from + 8, 2);
+		int hour = digits(b, from + 11, 2);
+		int minute = digits(b, from + 14, 2);
+		int second = digits(b, from + 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+			return Long.MIN_VALUE;
+		}
+		int i = from + 19;
+		int millis = 0;
+		if (i < to && b[i] == '.') {
+			int scale = 100;
+			for (i++; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+				millis += (b[i] - '0') * scale;
+				scale /= 10;
+			}
+		}
+		int offsetMinutes = 0;
+		if (i < to && (b[i] == '+' || b[i] == '-')) {
+			int sign = b[i] == '-' ? -1 : 1;
+			int hours = i + 3 <= to ? digits(b, i + 1, 2) : -1;
+			if (hours < 0) {
+				return Long.MIN_VALUE;
+			}
+			i += 3;
+			if (i < to && b[i] == ':') {
+				i++;
+			}
+			int minutes = i + 2 <= to ? digits(b, i, 2) : 0;
+			offsetMinutes = sign * (hours * 60 + Math.max(minutes, 0));
+		}
+		long date = daysFromCivil(year, month, day);
+		parsedDay = (int) date;
+		long seconds = date * 86400 + hour * 3600 + minute * 60 + second - offsetMinutes * 60L;
+		return seconds * 1000 + millis;
+	}
+
+	// value of n decimal digits at position from (-1 if there is another character)
+	private static int digits(byte[] b, int from, int n) {
+		int value = 0;
+		for (int i = from; i < from + n; i++) {
+			if (b[i] < '0' || b[i] > '9') {
+				return -1;
+			}
+			value = 10 * value + (b[i] - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * days since 1970-01-01 of a date of the proleptic gregorian calendar
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * parses a decimal number; numbers with more digits than a long can hold exactly, or in
+	 * another notation, are parsed with Double.parseDouble; returns NaN if it cannot be
+	 * parsed
+	 */
+	private static double parseDecimal(byte[] b, int from, int to) {
+		while (from < to && (b[from] == ' ' || b[from] == '"')) {
+			from++;
+		}
+		while (to > from && (b[to - 1] == ' ' || b[to - 1] == '"')) {
+			to--;
+		}
+		int i = from;
+		boolean negative = false;
+		if (i < to && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int numDigits = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; i < to; i++) {
+			byte c = b[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = 10 * mantissa + (c - '0');
+				numDigits++;
+				if (point) {
+					scale++;
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (i < to || numDigits > 15) {
+			// e.g., exponents or more digits than are exact in a double
+			try {
+				return Double.parseDouble(new String(b, from, to - from, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException ex) {
+				return Double.NaN;
+			}
+		}
+		if (numDigits == 0) {
+			return Double.NaN;
+		}
+		// mantissa and the power of ten are exact, so the quotient is correctly rounded
+		double value = mantissa / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * makes sure that the buffer contains a complete line from its position; returns the
+	 * index of the end of the line (the line feed or the end of the file), -1 if there is no
+	 * line left
+	 */
+	private int nextLine() throws IOException {
+		int searched = buffer.position();
+		while (true) {
+			for (int i = searched; i < buffer.limit(); i++) {
+				if (buffer.get(i) == '\n') {
+					return i;
+				}
+			}
+			if (endOfInput) {
+				return buffer.hasRemaining() ? buffer.limit() : -1;
+			}
+			// read more, moving the start of the line to the front (or growing the buffer)
+			searched = buffer.limit() - buffer.position();
+			if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+				larger.put(buffer);
+				buffer = larger;
+			} else {
+				buffer.compact();
+			}
+			if (channel.read(buffer) < 0) {
+				endOfInput = true;
+			}
+			buffer.flip();
+		}
+	}
+
+	public long getNumberOfRecords() {
+		return numRecords;
+	}
+
+	public long getNumberOfSkippedLines() {
+		return numSkippedLines;
+	}
+
+	/**
+	 * returns the number of tracks that were skipped because they consist of a single
+	 * record
+	 * @return
+	 */
+	public long getNumberOfSkippedTracks() {
+		return numSkippedTracks;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,238 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Reads the geometries of an ESRI shapefile record by record from the .shp file, so that
+ * only the current record is kept in memory (unlike jump's ShapefileReader, which reads
+ * the complete file into a FeatureCollection).
+ *
+ * Supported are points, polylines, polygons and multipoints (z and m values are ignored).
+ * The records are read in the order of the file, so neither the index (.shx) nor the
+ * attributes (.dbf) are needed.
+ */
+public class ShapefileStreamReader implements GeometryReader {
+
+	private static final int HEADER_LENGTH = 100;
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private GeometryFactory gf;
+	private int shapeType;
+	private Envelope extent;
+	private boolean endOfFile;
+
+	/**
+	 * @param filename the name of the .shp file
+	 * @param gf the factory for the geometries
+	 * @throws IOException
+	 */
+	public ShapefileStreamReader(String filename, GeometryFactory gf) throws IOException {
+		this.gf = gf;
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		buffer.flip();
+		if (!fill(HEADER_LENGTH)) {
+			throw new IOException(filename + " is not a shapefile");
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if (buffer.getInt() != 9994) {
+			throw new IOException(filename + " is not a shapefile");
+		}
+		buffer.position(buffer.position() + 24);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.getInt(); // version
+		shapeType = buffer.getInt();
+		double minX = buffer.getDouble();
+		double minY = buffer.getDouble();
+		double maxX = buffer.getDouble();
+		double maxY = buffer.getDouble();
+		extent = new Envelope(minX, maxX, minY, maxY);
+		buffer.position(buffer.position() + 32); // z and m ranges
+	}
+
+	public int getShapeType() {
+		return shapeType;
+	}
+
+	/**
+	 * returns the bounding box of all shapes from the header of the file
+	 * @return
+	 */
+	public Envelope getExtent() {
+		return extent;
+	}
+
+	/**
+	 * returns the geometry of the next record (null at the end of the file); polylines with
+	 * several parts are returned as MultiLineString, polygons with several shells as
+	 * MultiPolygon
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public Geometry next() throws IOException {
+		while (!endOfFile) {
+			if (!fill(8)) {
+				endOfFile = true;
+				return null;
+			}
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			buffer.getInt(); // record number
+			int contentLength = 2 * buffer.getInt();
+			if (!fill(contentLength)) {
+				throw new IOException("incomplete record at the end of the file");
+			}
+			int end = buffer.position() + contentLength;
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			Geometry g = readShape();
+			buffer.position(end); // skips z and m values
+			if (g != null) {
+				return g;
+			}
+		}
+		return null;
+	}
+
+	private Geometry readShape() {
+		int type = buffer.getInt();
+		switch (type) {
+		case 0: // null shape
+			return null;
+		case 1: // point
+		case 11: // pointZ
+		case 21: // pointM
+			return gf.createPoint(readPoint());
+		case 3: // polyline
+		case 13: // polylineZ
+		case 23: // polylineM
+		case 5: // polygon
+		case 15: // polygonZ
+		case 25: // polygonM
+			buffer.position(buffer.position() + 32); // bounding box
+			int numParts = buffer.getInt();
+			int numPoints = buffer.getInt();
+			int[] parts = new int[numParts + 1];
+			for (int i = 0; i < numParts; i++) {
+				parts[i] = buffer.getInt();
+			}
+			parts[numParts] = numPoints;
+			Coordinate[][] coords = new Coordinate[numParts][];
+			for (int i = 0; i < numParts; i++) {
+				coords[i] = new Coordinate[parts[i + 1] - parts[i]];
+				for (int j = 0; j < coords[i].length; j++) {
+					coords[i][j] = readPoint();
+				}
+			}
+			return type == 3 || type == 13 || type == 23 ? createLines(coords) : createPolygons(coords);
+		case 8: // multipoint
+		case 18: // multipointZ
+		case 28: // multipointM
+			buffer.position(buffer.position() + 32);
+			Coordinate[] points = new Coordinate[buffer.getInt()];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = readPoint();
+			}
+			return gf.createMultiPoint(points);
+		default:
+			throw new IllegalArgumentException("unsupported shape type " + type);
+		}
+	}
+
+	private Coordinate readPoint() {
+		double x = buffer.getDouble();
+		double y = buffer.getDouble();
+		return new Coordinate(x, y);
+	}
+
+	private Geometry createLines(Coordinate[][] coords) {
+		if (coords.length == 1) {
+			return gf.createLineString(coords[0]);
+		}
+		LineString[] lines = new LineString[coords.length];
+		for (int i = 0; i < coords.length; i++) {
+			lines[i] = gf.createLineString(coords[i]);
+		}
+		return gf.createMultiLineString(lines);
+	}
+
+	/**
+	 * shells of shapefile polygons are clockwise, holes counterclockwise; each hole belongs
+	 * to the shell containing it
+	 */
+	private Geometry createPolygons(Coordinate[][] coords) {
+		List<LinearRing> shells = new ArrayList<LinearRing>();
+		List<LinearRing> holes = new ArrayList<LinearRing>();
+		for (Coordinate[] ring : coords) {
+			if (CGAlgorithms.isCCW(ring)) {
+				holes.add(gf.createLinearRing(ring));
+			} else {
+				shells.add(gf.createLinearRing(ring));
+			}
+		}
+		if (shells.isEmpty()) {
+			// rings of the wrong orientation
+			shells = holes;
+			holes = new ArrayList<LinearRing>();
+		}
+		Polygon[] polygons = new Polygon[shells.size()];
+		for (int i = 0; i < shells.size(); i++) {
+			Coordinate[] shell = shells.get(i).getCoordinates();
+			List<LinearRing> shellHoles = new ArrayList<LinearRing>();
+			for (LinearRing hole : holes) {
+				if (shells.size() == 1 || CGAlgorithms.isPointInRing(hole.getCoordinateN(0), shell)) {
+					shellHoles.add(hole);
+				}
+			}
+			polygons[i] = gf.createPolygon(shells.get(i), shellHoles.toArray(new LinearRing[0]));
+		}
+		if (polygons.length == 1) {
+			return polygons[0];
+		}
+		return gf.createMultiPolygon(polygons);
+	}
+
+	/**
+	 * makes sure that the buffer contains at least the given number of bytes after its
+	 * position; returns false if the file ends before
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return true;
+		}
+		if (buffer.capacity() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, 2 * buffer.capacity()));
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.remaining() >= bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,430 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.Locale;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes an ESRI shapefile (.shp, .shx and .dbf) feature by feature, so that the features
+ * never have to be kept in memory (unlike jump's ShapefileWriter, which writes a complete
+ * FeatureCollection).
+ *
+ * The values in the headers that depend on all features (file lengths, bounding box,
+ * number of records) are written when the writer is closed. Attribute values of features
+ * that have already been written can be changed with {@link #update(int, int, Object)}.
+ *
+ * The files are written next to their final names and only replace the files of these
+ * names when {@link #finish()} succeeds. A writer that is closed without being finished
+ * (e.g., because computing the features failed) deletes the partial files and leaves the
+ * previous shapefile as it was.
+ */
+public class ShapefileStreamWriter implements AutoCloseable {
+
+	public static final int POLYLINE = 3;
+	public static final int POLYGON = 5;
+	public static final int MULTIPOINT = 8;
+
+	private static final int HEADER_LENGTH = 100;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * an attribute of the features (written to the .dbf file)
+	 */
+	public static class Field {
+		private String name;
+		private char type;
+		private int length;
+		private int decimals;
+
+		private Field(String name, char type, int length, int decimals) {
+			this.name = name;
+			this.type = type;
+			this.length = length;
+			this.decimals = decimals;
+		}
+
+		/**
+		 * @param name at most 10 characters
+		 * @param length number of characters of a value
+		 * @param decimals number of digits after the decimal point
+		 * @return
+		 */
+		public static Field numeric(String name, int length, int decimals) {
+			return new Field(name, 'N', length, decimals);
+		}
+
+		/**
+		 * @param name at most 10 characters
+		 * @param length number of characters of a value (longer values are cut)
+		 * @return
+		 */
+		public static Field character(String name, int length) {
+			return new Field(name, 'C', length, 0);
+		}
+	}
+
+	private int shapeType;
+	private Field[] fields;
+	private int[] fieldOffsets;
+	private int recordLength;
+	private int dbfHeaderLength;
+
+	// final and partial paths of the .shp, .shx and .dbf file
+	private Path[] paths = new Path[3];
+	private Path[] partialPaths = new Path[3];
+	private boolean finished;
+	// true if the writer added the dummy field (a shapefile needs at least one field)
+	private boolean dummyField;
+
+	private FileChannel shp;
+	private FileChannel shx;
+	private FileChannel dbf;
+	private ByteBuffer shpBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer shxBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer dbfBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private int numRecords;
+	// length of the .shp file in bytes
+	private long shpLength = HEADER_LENGTH;
+	private Envelope extent = new Envelope();
+
+	/**
+	 * @param filename the name of the .shp file (.shx and .dbf are written next to it)
+	 * @param shapeType the type of all shapes ({@link #POLYLINE}, {@link #POLYGON} or
+	 *       {@link #MULTIPOINT})
+	 * @param fields the attributes of the features (without fields, a numeric field "id"
+	 *       with the number of the feature is written)
+	 * @throws IOException
+	 */
+	public ShapefileStreamWriter(String filename, int shapeType, Field... fields) throws IOException {
+		this.shapeType = shapeType;
+		if (fields.length == 0) {
+			fields = new Field[] { Field.numeric("id", 10, 0) };
+			dummyField = true;
+		}
+		this.fields = fields;
+		String base = filename.substring(0, filename.length() - 4);
+		String[] extensions = { ".shp", ".shx", ".dbf" };
+		for (int i = 0; i < extensions.length; i++) {
+			paths[i] = Paths.get(base + extensions[i]);
+			partialPaths[i] = Paths.get(base + extensions[i] + ".partial");
+		}
+		shp = open(partialPaths[0]);
+		shx = open(partialPaths[1]);
+		dbf = open(partialPaths[2]);
+
+		fieldOffsets = new int[fields.length];
+		recordLength = 1; // deletion flag
+		for (int i = 0; i < fields.length; i++) {
+			fieldOffsets[i] = recordLength;
+			recordLength += fields[i].length;
+		}
+		dbfHeaderLength = 32 + 32 * fields.length + 1;
+
+		// headers are written again with the final values on close
+		shp.position(HEADER_LENGTH);
+		shx.position(HEADER_LENGTH);
+		dbf.position(dbfHeaderLength);
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * writes a feature
+	 * @param g a LineString or MultiLineString for polylines, a Polygon or MultiPolygon for
+	 *       polygons, a Point or MultiPoint for multipoints
+	 * @param values the values of the attributes (in the order of the fields)
+	 * @throws IOException
+	 */
+	public void write(Geometry g, Object... values) throws IOException {
+		Coordinate[][] parts;
+		if (shapeType == POLYGON) {
+			// shells are clockwise, holes counterclockwise
+			int numRings = 0;
+			for (int i = 0; i < g.getNumGeometries(); i++) {
+				numRings += 1 + ((Polygon) g.getGeometryN(i)).getNumInteriorRing();
+			}
+			parts = new Coordinate[numRings][];
+			numRings = 0;
+			for (int i = 0; i < g.getNumGeometries(); i++) {
+				Polygon polygon = (Polygon) g.getGeometryN(i);
+				parts[numRings++] = orient(polygon.getExteriorRing().getCoordinates(), false);
+				for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+					parts[numRings++] = orient(polygon.getInteriorRingN(j).getCoordinates(), true);
+				}
+			}
+		} else if (shapeType == POLYLINE) {
+			parts = new Coordinate[g.getNumGeometries()][];
+			for (int i = 0; i < parts.length; i++) {
+				parts[i] = g.getGeometryN(i).getCoordinates();
+			}
+		} else {
+			parts = new Coordinate[][] { g.getCoordinates() };
+		}
+
+		int numPoints = 0;
+		for (Coordinate[] part : parts) {
+			numPoints += part.length;
+		}
+		Envelope env = g.getEnvelopeInternal();
+		// shape type, bounding box, (number of parts), number of points, (parts), points
+		int contentLength = 4 + 32 + 4 + 16 * numPoints;
+		if (shapeType != MULTIPOINT) {
+			contentLength += 4 + 4 * parts.length;
+		}
+		ByteBuffer b = beginRecord(contentLength);
+		b.putInt(shapeType);
+		putEnvelope(b, env);
+		if (shapeType != MULTIPOINT) {
+			b.putInt(parts.length);
+		}
+		b.putInt(numPoints);
+		if (shapeType != MULTIPOINT) {
+			int start = 0;
+			for (Coordinate[] part : parts) {
+				ensure(shpBuffer, shp, 4);
+				shpBuffer.putInt(start);
+				start += part.length;
+			}
+		}
+		for (Coordinate[] part : parts) {
+			for (Coordinate c : part) {
+				putPoint(c);
+			}
+		}
+		endRecord(env, values);
+	}
+
+	private static Coordinate[] orient(Coordinate[] ring, boolean ccw) {
+		if (CGAlgorithms.isCCW(ring) == ccw) {
+			return ring;
+		}
+		Coordinate[] reversed = new Coordinate[ring.length];
+		for (int i = 0; i < ring.length; i++) {
+			reversed[i] = ring[ring.length - 1 - i];
+		}
+		return reversed;
+	}
+
+	/**
+	 * writes the record header and the index entry of the next record and returns the
+	 * buffer the content has to be written to (in little endian)
+	 */
+	private ByteBuffer beginRecord(int contentLength) throws IOException {
+		ensure(shxBuffer, shx, 8);
+		shxBuffer.order(ByteOrder.BIG_ENDIAN);
+		shxBuffer.putInt((int) (shpLength / 2));
+		shxBuffer.putInt(contentLength / 2);
+
+		ensure(shpBuffer, shp, 8);
+		shpBuffer.order(ByteOrder.BIG_ENDIAN);
+		shpBuffer.putInt(numRecords + 1);
+		shpBuffer.putInt(contentLength / 2);
+		shpLength += 8 + contentLength;
+		// the content of large records is written through the buffer in pieces (parts and points)
+		ensure(shpBuffer, shp, 48);
+		shpBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		return shpBuffer;
+	}
+
+	private void putPoint(Coordinate c) throws IOException {
+		ensure(shpBuffer, shp, 16);
+		shpBuffer.putDouble(c.x);
+		shpBuffer.putDouble(c.y);
+	}
+
+	private static void putEnvelope(ByteBuffer b, Envelope env) {
+		b.putDouble(env.getMinX());
+		b.putDouble(env.getMinY());
+		b.putDouble(env.getMaxX());
+		b.putDouble(env.getMaxY());
+	}
+
+	private void endRecord(Envelope env, Object[] values) throws IOException {
+		extent.expandToInclude(env);
+		ensure(dbfBuffer, dbf, recordLength);
+		dbfBuffer.put((byte) ' ');
+		if (dummyField) {
+			values = new Object[] { numRecords + 1 };
+		}
+		for (int i = 0; i < fields.length; i++) {
+			dbfBuffer.put(format(fields[i], i < values.length ? values[i] : null));
+		}
+		numRecords++;
+	}
+
+	/**
+	 * changes the value of a field of a feature that has already been written
+	 * @param record the number of the feature (0 for the first)
+	 * @param field the number of the field
+	 * @param value
+	 * @throws IOException
+	 */
+	public void update(int record, int field, Object value) throws IOException {
+		flush(dbfBuffer, dbf);
+		dbf.write(ByteBuffer.wrap(format(fields[field], value)),
+				dbfHeaderLength + (long) record * recordLength + fieldOffsets[field]);
+	}
+
+	private static byte[] format(Field field, Object value) {
+		String s = "";
+		if (field.type == 'C') {
+			s = value == null ? "" : value.toString();
+		} else if (value instanceof Number) {
+			Number n = (Number) value;
+			if (field.decimals == 0) {
+				s = Long.toString(n.longValue());
+			} else {
+				s = String.format(Locale.ROOT, "%." + field.decimals + "f", n.doubleValue());
+			}
+		}
+		if (s.length() > field.length) {
+			s = s.substring(0, field.length);
+		}
+		// numbers are right-aligned, characters left-aligned
+		StringBuilder sb = new StringBuilder(field.length);
+		if (field.type == 'C') {
+			sb.append(s);
+		}
+		while (sb.length() < field.length - (field.type == 'C' ? 0 : s.length())) {
+			sb.append(' ');
+		}
+		if (field.type != 'C') {
+			sb.append(s);
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	public int getNumberOfRecords() {
+		return numRecords;
+	}
+
+	private static void ensure(ByteBuffer b, FileChannel channel, int bytes) throws IOException {
+		if (b.remaining() < bytes) {
+			flush(b, channel);
+		}
+	}
+
+	private static void flush(ByteBuffer b, FileChannel channel) throws IOException {
+		b.flip();
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+		b.clear();
+	}
+
+	/**
+	 * writes the headers and replaces the files of the shapefile with the written files
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		try {
+			flush(shpBuffer, shp);
+			flush(shxBuffer, shx);
+			flush(dbfBuffer, dbf);
+			dbf.write(ByteBuffer.wrap(new byte[] { 0x1a })); // end of file
+
+			shp.write(mainHeader(shpLength), 0);
+			shx.write(mainHeader(HEADER_LENGTH + 8L * numRecords), 0);
+			dbf.write(dbfHeader(), 0);
+		} finally {
+			closeChannels();
+		}
+		for (int i = 0; i < paths.length; i++) {
+			Files.move(partialPaths[i], paths[i], StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		finished = true;
+	}
+
+	/**
+	 * deletes the written files unless the writer was finished
+	 */
+	@Override
+	public void close() throws IOException {
+		if (finished) {
+			return;
+		}
+		closeChannels();
+		for (Path partialPath : partialPaths) {
+			Files.deleteIfExists(partialPath);
+		}
+	}
+
+	private void closeChannels() throws IOException {
+		try {
+			shp.close();
+		} finally {
+			try {
+				shx.close();
+			} finally {
+				dbf.close();
+			}
+		}
+	}
+
+	private ByteBuffer mainHeader(long fileLength) {
+		ByteBuffer b = ByteBuffer.allocate(HEADER_LENGTH);
+		b.order(ByteOrder.BIG_ENDIAN);
+		b.putInt(9994);
+		b.position(24);
+		b.putInt((int) (fileLength / 2));
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(1000);
+		b.putInt(shapeType);
+		if (extent.isNull()) {
+			putEnvelope(b, new Envelope(0, 0, 0, 0));
+		} else {
+			putEnvelope(b, extent);
+		}
+		// z and m ranges stay 0
+		b.position(0);
+		return b;
+	}
+
+	private ByteBuffer dbfHeader() {
+		ByteBuffer b = ByteBuffer.allocate(dbfHeaderLength);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		Calendar now = Calendar.getInstance();
+		b.put((byte) 3);
+		b.put((byte) (now.get(Calendar.YEAR) - 1900));
+		b.put((byte) (now.get(Calendar.MONTH) + 1));
+		b.put((byte) now.get(Calendar.DAY_OF_MONTH));
+		b.putInt(numRecords);
+		b.putShort((short) dbfHeaderLength);
+		b.putShort((short) recordLength);
+		b.position(32);
+		for (Field f : fields) {
+			byte[] name = f.name.getBytes(StandardCharsets.US_ASCII);
+			int start = b.position();
+			b.put(name, 0, Math.min(name.length, 10));
+			b.position(start + 11);
+			b.put((byte) f.type);
+			b.position(start + 16);
+			b.put((byte) f.length);
+			b.put((byte) f.decimals);
+			b.position(start + 32);
+		}
+		b.put((byte) 0x0d);
+		b.position(0);
+		return b;
+	}
+}
@@ -0,0 +1,139 @@
+package io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transverse mercator projection (e.g., UTM) of geographic coordinates on an ellipsoid,
+ * with the series of Krueger to the sixth order in the third flattening (accurate to well
+ * below a millimeter within several thousand kilometers of the central meridian).
+ *
+ * The coefficients depend only on the ellipsoid and are computed once, so projecting a
+ * batch of points is a loop over primitive arrays.
+ */
+public class TransverseMercator {
+
+	private double centralMeridian;
+	private double scaleFactor;
+	private double falseEasting;
+	private double falseNorthing;
+	// eccentricity, rectifying radius and coefficients of the series
+	private double e;
+	private double radius;
+	private double[] alpha = new double[6];
+	// northing of the latitude of origin on the central meridian (before scaling)
+	private double northingOfOrigin;
+
+	/**
+	 * @param a semi-major axis of the ellipsoid in meters
+	 * @param inverseFlattening
+	 * @param latitudeOfOrigin in degrees
+	 * @param centralMeridian in degrees
+	 * @param scaleFactor
+	 * @param falseEasting in meters
+	 * @param falseNorthing in meters
+	 */
+	public TransverseMercator(double a, double inverseFlattening, double latitudeOfOrigin, double centralMeridian,
+			double scaleFactor, double falseEasting, double falseNorthing) {
+		this.centralMeridian = Math.toRadians(centralMeridian);
+		this.scaleFactor = scaleFactor;
+		this.falseEasting = falseEasting;
+		this.falseNorthing = falseNorthing;
+		double f = 1.0 / inverseFlattening;
+		e = Math.sqrt(f * (2 - f));
+		double n = f / (2 - f);
+		double n2 = n * n;
+		double n3 = n2 * n;
+		double n4 = n3 * n;
+		double n5 = n4 * n;
+		double n6 = n5 * n;
+		radius = a / (1 + n) * (1 + n2 / 4 + n4 / 64 + n6 / 256);
+		alpha[0] = n / 2 - 2 * n2 / 3 + 5 * n3 / 16 + 41 * n4 / 180 - 127 * n5 / 288 + 7891 * n6 / 37800;
+		alpha[1] = 13 * n2 / 48 - 3 * n3 / 5 + 557 * n4 / 1440 + 281 * n5 / 630 - 1983433 * n6 / 1935360;
+		alpha[2] = 61 * n3 / 240 - 103 * n4 / 140 + 15061 * n5 / 26880 + 167603 * n6 / 181440;
+		alpha[3] = 49561 * n4 / 161280 - 179 * n5 / 168 + 6601661 * n6 / 7257600;
+		alpha[4] = 34729 * n5 / 80640 - 3418889 * n6 / 1995840;
+		alpha[5] = 212378941 * n6 / 319334400;
+
+		double[] x = new double[1];
+		double[] y = new double[1];
+		northingOfOrigin = 0;
+		project(new double[] { latitudeOfOrigin }, new double[] { centralMeridian }, 1, x, y);
+		northingOfOrigin = (y[0] - falseNorthing) / scaleFactor;
+	}
+
+	/**
+	 * reads the projection from the well-known text of a .prj file (only transverse
+	 * mercator projections are supported)
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static TransverseMercator fromPrj(String filename) throws IOException {
+		String wkt = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+		if (!wkt.toLowerCase().contains("transverse_mercator")) {
+			throw new IOException(filename + " is not a transverse mercator projection");
+		}
+		Matcher spheroid = Pattern.compile("SPHEROID\\[\"[^\"]*\",\\s*([-0-9.eE+]+),\\s*([-0-9.eE+]+)")
+				.matcher(wkt);
+		if (!spheroid.find()) {
+			throw new IOException(filename + " has no spheroid");
+		}
+		return new TransverseMercator(Double.parseDouble(spheroid.group(1)), Double.parseDouble(spheroid.group(2)),
+				parameter(wkt, "latitude_of_origin", 0), parameter(wkt, "central_meridian", Double.NaN),
+				parameter(wkt, "scale_factor", 1), parameter(wkt, "false_easting", 0),
+				parameter(wkt, "false_northing", 0));
+	}
+
+	private static double parameter(String wkt, String name, double defaultValue) throws IOException {
+		Matcher m = Pattern.compile("PARAMETER\\[\"" + name + "\",\\s*([-0-9.eE+]+)\\]", Pattern.CASE_INSENSITIVE)
+				.matcher(wkt);
+		if (m.find()) {
+			return Double.parseDouble(m.group(1));
+		}
+		if (Double.isNaN(defaultValue)) {
+			throw new IOException("missing parameter " + name);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * projects the first n points given by latitude and longitude in degrees to easting x and
+	 * northing y in meters
+	 * @param lat
+	 * @param lon
+	 * @param n
+	 * @param x
+	 * @param y
+	 */
+	public void project(double[] lat, double[] lon, int n, double[] x, double[] y) {
+		double k = scaleFactor * radius;
+		for (int i = 0; i < n; i++) {
+			double phi = Math.toRadians(lat[i]);
+			double lambda = Math.toRadians(lon[i]) - centralMeridian;
+			double sinPhi = Math.sin(phi);
+			// conformal latitude, as tangent
+			double t = Math.sinh(atanh(sinPhi) - e * atanh(e * sinPhi));
+			double cosLambda = Math.cos(lambda);
+			double xi1 = Math.atan2(t, cosLambda);
+			double eta1 = atanh(Math.sin(lambda) / Math.sqrt(1 + t * t));
+			double xi = xi1;
+			double eta = eta1;
+			for (int j = 0; j < 6; j++) {
+				double a = 2 * (j + 1);
+				xi += alpha[j] * Math.sin(a * xi1) * Math.cosh(a * eta1);
+				eta += alpha[j] * Math.cos(a * xi1) * Math.sinh(a * eta1);
+			}
+			x[i] = falseEasting + k * eta;
+			y[i] = falseNorthing + k * xi - scaleFactor * northingOfOrigin;
+		}
+	}
+
+	private static double atanh(double x) {
+		return 0.5 * Math.log((1 + x) / (1 - x));
+	}
+}
@@ -0,0 +1,80 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * The adjacency of the cells as written by the clustering (cells.adjacency): two cells are
+ * adjacent if an edge of the triangulation connects points of their clusters.
+ *
+ * The adjacency only determines which cells are tested first when locating the points of a
+ * track (see {@link CellCursor}), so an outdated or incomplete adjacency makes locating
+ * slower, but never changes its result.
+ */
+public class CellAdjacency {
+
+	private static final int MAGIC = 0x4341444a; // "CADJ"
+	private static final int VERSION = 1;
+
+	// the neighbors of cell id are neighbors[offsets[id]] .. neighbors[offsets[id + 1] - 1]
+	private int[] offsets;
+	private int[] neighbors;
+
+	private CellAdjacency() {
+	}
+
+	/**
+	 * reads the adjacency of the cells with ids 0..maxId (pairs with larger ids are ignored)
+	 * @param filename
+	 * @param maxId
+	 * @return
+	 * @throws IOException
+	 */
+	public static CellAdjacency read(String filename, int maxId) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(filename + " is not a cell adjacency file");
+			}
+			int m = in.readInt();
+			CellAdjacency a = new CellAdjacency();
+			a.offsets = new int[maxId + 2];
+			a.neighbors = new int[m];
+			int n = 0;
+			int lastId = 0;
+			// the pairs are sorted by the first id
+			for (int i = 0; i < m; i++) {
+				int id = in.readInt();
+				int neighbor = in.readInt();
+				if (id < 0 || id > maxId || neighbor < 0 || neighbor > maxId) {
+					continue;
+				}
+				if (id < lastId) {
+					throw new IOException(filename + " is not sorted");
+				}
+				lastId = id;
+				a.offsets[id + 1]++;
+				a.neighbors[n++] = neighbor;
+			}
+			for (int id = 0; id <= maxId; id++) {
+				a.offsets[id + 1] += a.offsets[id];
+			}
+			return a;
+		}
+	}
+
+	public int getDegree(int id) {
+		return id + 1 < offsets.length ? offsets[id + 1] - offsets[id] : 0;
+	}
+
+	/**
+	 * returns the i-th neighbor of cell id (0 <= i < degree of id)
+	 * @param id
+	 * @param i
+	 * @return
+	 */
+	public int getNeighbor(int id, int i) {
+		return neighbors[offsets[id] + i];
+	}
+}
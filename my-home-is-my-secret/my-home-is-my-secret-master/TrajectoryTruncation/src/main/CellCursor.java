@@ -0,0 +1,91 @@
+package main;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import mapViewer.PolygonMapObject;
+
+/**
+ * Locates the consecutive points of a single track.
+ *
+ * Consecutive points of a track almost always lie in the same or in adjacent cells, so the
+ * cell of the previous point is tested first, then the cells adjacent to it, and only then
+ * the cells found with the grid or tree of the {@link CellLocator}. Points in a square of
+ * the grid that is covered by a cell need no test at all. Since the interiors of the cells
+ * are disjoint, the result is the same as that of
+ * {@link CellLocator#getCellContainingPoint(Coordinate)}.
+ *
+ * A cursor keeps the cell of the previous point, so it must not be shared between threads.
+ */
+public class CellCursor {
+
+	private CellLocator locator;
+	private CellAdjacency adjacency;
+	// id of the cell of the previous point (0 if unknown)
+	private int previous;
+
+	private int numCovered;
+	private int numPrevious;
+	private int numAdjacent;
+	private int numGlobal;
+
+	CellCursor(CellLocator locator) {
+		this.locator = locator;
+		this.adjacency = locator.getAdjacency();
+	}
+
+	/**
+	 * returns the cell containing c in its interior (null if there is no such cell)
+	 * @param c
+	 * @return
+	 */
+	public PolygonMapObject getCellContainingPoint(Coordinate c) {
+		int covering = locator.getCoveringCell(c);
+		if (covering < 0) {
+			numCovered++;
+			return null;
+		}
+		if (covering > 0) {
+			numCovered++;
+			previous = covering;
+			return locator.getCell(covering);
+		}
+		if (previous > 0) {
+			if (locator.isInCell(previous, c)) {
+				numPrevious++;
+				return locator.getCell(previous);
+			}
+			if (adjacency != null) {
+				for (int i = 0; i < adjacency.getDegree(previous); i++) {
+					int id = adjacency.getNeighbor(previous, i);
+					if (locator.isInCell(id, c)) {
+						numAdjacent++;
+						previous = id;
+						return locator.getCell(id);
+					}
+				}
+			}
+		}
+		numGlobal++;
+		PolygonMapObject cell = locator.getCellContainingPoint(c);
+		if (cell != null) {
+			previous = cell.getId();
+		}
+		return cell;
+	}
+
+	int getNumCovered() {
+		return numCovered;
+	}
+
+	int getNumPrevious() {
+		return numPrevious;
+	}
+
+	int getNumAdjacent() {
+		return numAdjacent;
+	}
+
+	int getNumGlobal() {
+		return numGlobal;
+	}
+}
@@ -0,0 +1,367 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.prep.PreparedPolygon;
+
+import mapViewer.PolygonMapObject;
+
+/**
+ * A uniform grid of squares over the extent of the data (the part of it covered by cells).
+ *
+ * A square that lies completely in the interior of a cell stores the id of this cell, so
+ * the cell containing a point in such a square is found with a single array read. Any
+ * other square stores the ids of the cells intersecting it, which have to be tested
+ * exactly (squares at cell boundaries, usually a small fraction of all squares).
+ *
+ * Points outside of the grid have to be located by other means. The grid only depends on
+ * the cells and the extent, so it is written next to cells.shp and reused as long as the
+ * content of cells.shp and cells.dbf and the extent do not change.
+ */
+public class CellGrid {
+
+	// first int of a grid file, followed by the format version
+	private static final int MAGIC = 0x43474944;
+	private static final int VERSION = 1;
+
+	// entry of a square in squares: the id of the cell covering it (> 0), NONE if no cell
+	// intersects it, or -(i + 1) for the i-th list of candidates
+	private static final int NONE = 0;
+	// flag of entries of cells that intersect but do not cover a square (the lower 31 bits
+	// of an entry are the cell id, the upper 32 bits the square)
+	private static final long CANDIDATE = 0x80000000L;
+	private static final long ID_MASK = 0x7fffffffL;
+
+	private double minX;
+	private double minY;
+	private double size;
+	private int columns;
+	private int rows;
+	private int[] squares;
+	private int[] candidateOffsets;
+	private int[] candidates;
+
+	// checksum of the files the cells were read from
+	private long sourceChecksum;
+
+	private CellGrid() {
+	}
+
+	/**
+	 * builds the grid for the given cells (cells with id 0 are ignored)
+	 * @param cells
+	 * @param dataExtent the extent of the points to be located, e.g. of the clusters
+	 * @param squaresPerCell the number of squares per cell on average
+	 * @return
+	 */
+	public static CellGrid build(Collection<PolygonMapObject> cells, Envelope dataExtent, double squaresPerCell) {
+		CellGrid grid = new CellGrid();
+		Envelope cellsExtent = new Envelope();
+		for (PolygonMapObject pmo : cells) {
+			if (pmo.getId() != 0) {
+				cellsExtent.expandToInclude(pmo.getPolygon().getEnvelopeInternal());
+			}
+		}
+		// no cell reaches beyond the cells' extent, so the grid covers only the part of the
+		// data inside it
+		Envelope extent = cellsExtent.intersection(dataExtent);
+		if (extent.isNull() || extent.getArea() == 0) {
+			extent = cellsExtent;
+		}
+		int n = 0;
+		for (PolygonMapObject pmo : cells) {
+			if (pmo.getId() != 0 && pmo.getPolygon().getEnvelopeInternal().intersects(extent)) {
+				n++;
+			}
+		}
+		if (n == 0) {
+			extent = new Envelope(0, 1, 0, 1);
+		}
+		grid.minX = extent.getMinX();
+		grid.minY = extent.getMinY();
+		grid.size = Math.sqrt(extent.getArea() / (squaresPerCell * Math.max(n, 1)));
+		if (!(grid.size > 0)) {
+			grid.size = Math.max(Math.max(extent.getWidth(), extent.getHeight()), 1.0);
+		}
+		grid.columns = Math.max(1, (int) Math.ceil(extent.getWidth() / grid.size));
+		grid.rows = Math.max(1, (int) Math.ceil(extent.getHeight() / grid.size));
+
+		// entries (square, cell id, whether the cell only intersects the square), collected
+		// for all cells in parallel and then grouped by square
+		Envelope gridExtent = new Envelope(grid.minX, grid.minX + grid.columns * grid.size, grid.minY,
+				grid.minY + grid.rows * grid.size);
+		List<long[]> entriesOfCells = cells.parallelStream()
+				.filter(pmo -> pmo.getId() != 0 && pmo.getPolygon().getEnvelopeInternal().intersects(gridExtent))
+				.map(pmo -> grid.computeEntries(pmo)).collect(Collectors.toList());
+		int numEntries = 0;
+		for (long[] e : entriesOfCells) {
+			numEntries += e.length;
+		}
+		long[] entries = new long[numEntries];
+		numEntries = 0;
+		for (long[] e : entriesOfCells) {
+			System.arraycopy(e, 0, entries, numEntries, e.length);
+			numEntries += e.length;
+		}
+		entriesOfCells = null;
+		Arrays.parallelSort(entries);
+
+		grid.squares = new int[grid.columns * grid.rows];
+		int[] offsets = new int[16];
+		int[] ids = new int[Math.max(16, entries.length)];
+		int numLists = 0;
+		int numIds = 0;
+		int i = 0;
+		while (i < entries.length) {
+			int square = (int) (entries[i] >>> 32);
+			int j = i;
+			while (j < entries.length && (int) (entries[j] >>> 32) == square) {
+				j++;
+			}
+			// entries of covering cells (flag not set) come first in a group
+			if ((entries[i] & CANDIDATE) == 0) {
+				grid.squares[square] = (int) (entries[i] & ID_MASK);
+			} else {
+				if (numLists + 1 >= offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+				}
+				offsets[numLists] = numIds;
+				for (int k = i; k < j; k++) {
+					ids[numIds++] = (int) (entries[k] & ID_MASK);
+				}
+				grid.squares[square] = -(++numLists);
+			}
+			i = j;
+		}
+		offsets[numLists] = numIds;
+		grid.candidateOffsets = Arrays.copyOf(offsets, numLists + 1);
+		grid.candidates = Arrays.copyOf(ids, numIds);
+		return grid;
+	}
+
+	private long[] computeEntries(PolygonMapObject pmo) {
+		GeometryFactory gf = new GeometryFactory();
+		PreparedPolygon pp = new PreparedPolygon((Polygonal) pmo.getPolygon());
+		Envelope env = pmo.getPolygon().getEnvelopeInternal();
+		if (!env.intersects(new Envelope(minX, minX + columns * size, minY, minY + rows * size))) {
+			return new long[0];
+		}
+		int c0 = column(env.getMinX());
+		int c1 = column(env.getMaxX());
+		int r0 = row(env.getMinY());
+		int r1 = row(env.getMaxY());
+		long[] entries = new long[(c1 - c0 + 1) * (r1 - r0 + 1)];
+		int n = 0;
+		for (int row = r0; row <= r1; row++) {
+			for (int column = c0; column <= c1; column++) {
+				// squares are slightly enlarged, so that rounding in column() and row() never
+				// assigns a point to a covered square it is not in
+				Envelope square = new Envelope(minX + column * size, minX + (column + 1) * size, minY + row * size,
+						minY + (row + 1) * size);
+				square.expandBy(size * 1e-9);
+				Geometry g = gf.toGeometry(square);
+				long entry = ((long) (row * columns + column) << 32) | pmo.getId();
+				if (pp.containsProperly(g)) {
+					entries[n++] = entry;
+				} else if (pp.intersects(g)) {
+					entries[n++] = entry | CANDIDATE;
+				}
+			}
+		}
+		return Arrays.copyOf(entries, n);
+	}
+
+	private int column(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / size)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / size)));
+	}
+
+	/**
+	 * returns the square containing c (-1 if c is outside of the grid)
+	 * @param c
+	 * @return
+	 */
+	public int getSquare(Coordinate c) {
+		double x = (c.x - minX) / size;
+		double y = (c.y - minY) / size;
+		if (!(x >= 0 && y >= 0 && x <= columns && y <= rows)) {
+			return -1;
+		}
+		return row(c.y) * columns + column(c.x);
+	}
+
+	/**
+	 * returns the id of the cell whose interior contains the square (0 if there is no such
+	 * cell)
+	 * @param square
+	 * @return
+	 */
+	public int getCoveringCell(int square) {
+		return Math.max(squares[square], NONE);
+	}
+
+	public int getNumberOfCandidates(int square) {
+		if (squares[square] >= 0) {
+			return 0;
+		}
+		int list = -squares[square] - 1;
+		return candidateOffsets[list + 1] - candidateOffsets[list];
+	}
+
+	/**
+	 * returns the id of the i-th cell intersecting a square that is not covered by a cell
+	 * @param square
+	 * @param i
+	 * @return
+	 */
+	public int getCandidate(int square, int i) {
+		return candidates[candidateOffsets[-squares[square] - 1] + i];
+	}
+
+	/**
+	 * reads the grid of the cells of cellsFile from gridFile if it was built for the current
+	 * content of cellsFile (and the dbf file next to it) and the same extent, otherwise
+	 * builds it and writes it to gridFile
+	 * @param gridFile
+	 * @param cellsFile
+	 * @param cells the cells read from cellsFile
+	 * @param dataExtent the extent of the points to be located
+	 * @return
+	 */
+	public static CellGrid readOrBuild(String gridFile, String cellsFile, Collection<PolygonMapObject> cells,
+			Envelope dataExtent) {
+		String dbfFile = cellsFile.substring(0, cellsFile.length() - 4) + ".dbf";
+		long checksum = 0;
+		try {
+			checksum = checksum(cellsFile, dbfFile);
+		} catch (IOException ex) {
+			System.out.println("grid_checksum: " + ex);
+		}
+		if (new File(gridFile).exists()) {
+			try {
+				CellGrid grid = read(gridFile, checksum, dataExtent);
+				if (grid != null) {
+					return grid;
+				}
+			} catch (IOException ex) {
+				System.out.println("grid_read: " + ex);
+			}
+		}
+		CellGrid grid = build(cells, dataExtent, 16);
+		grid.sourceChecksum = checksum;
+		try {
+			grid.write(gridFile, dataExtent);
+		} catch (IOException ex) {
+			System.out.println("grid_write: " + ex);
+		}
+		return grid;
+	}
+
+	private static long checksum(String... files) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		for (String file : files) {
+			if (!new File(file).exists()) {
+				continue;
+			}
+			try (InputStream in = new FileInputStream(file)) {
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					crc.update(buffer, 0, n);
+				}
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * returns the grid stored in file, or null if it was built for other cells or another
+	 * extent
+	 */
+	private static CellGrid read(String file, long checksum, Envelope dataExtent) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != checksum
+					|| in.readDouble() != dataExtent.getMinX() || in.readDouble() != dataExtent.getMaxX()
+					|| in.readDouble() != dataExtent.getMinY() || in.readDouble() != dataExtent.getMaxY()) {
+				return null;
+			}
+			CellGrid grid = new CellGrid();
+			grid.sourceChecksum = checksum;
+			grid.minX = in.readDouble();
+			grid.minY = in.readDouble();
+			grid.size = in.readDouble();
+			grid.columns = in.readInt();
+			grid.rows = in.readInt();
+			grid.squares = readInts(in);
+			grid.candidateOffsets = readInts(in);
+			grid.candidates = readInts(in);
+			return grid;
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = in.readInt();
+		}
+		return a;
+	}
+
+	/**
+	 * writes the grid to a temporary file that then replaces file, so an interrupted write
+	 * never leaves a truncated grid behind
+	 */
+	private void write(String file, Envelope dataExtent) throws IOException {
+		File target = new File(file);
+		File partial = new File(file + ".partial");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(partial)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceChecksum);
+			out.writeDouble(dataExtent.getMinX());
+			out.writeDouble(dataExtent.getMaxX());
+			out.writeDouble(dataExtent.getMinY());
+			out.writeDouble(dataExtent.getMaxY());
+			out.writeDouble(minX);
+			out.writeDouble(minY);
+			out.writeDouble(size);
+			out.writeInt(columns);
+			out.writeInt(rows);
+			writeInts(out, squares);
+			writeInts(out, candidateOffsets);
+			writeInts(out, candidates);
+		}
+		Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int x : a) {
+			out.writeInt(x);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package main;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Location;
+
+import index.PackedHilbertRTree;
+import mapViewer.PolygonMapObject;
+
+/**
+ * Locates the cell containing a point.
+ *
+ * Candidate cells are found with a {@link CellGrid} if one is given and the point lies in
+ * its extent (a point in a square covered by a cell needs no test at all), otherwise with a
+ * {@link PackedHilbertRTree} on the bounding boxes of the cells. Every cell keeps an indexed
+ * point-in-area locator (an interval index on the y-extent of its edges), so a candidate is
+ * tested in logarithmic instead of linear time in the number of vertices of the cell, and
+ * without creating a point geometry. As with Polygon.contains, points on the boundary of a
+ * cell are not contained in it.
+ *
+ * Points of a track are usually located with a {@link CellCursor}, which tests the cell of
+ * the previous point and its adjacent cells first.
+ *
+ * The cells of a {@link ClusterSnapshot} are located with the tree stored in the snapshot
+ * and read (and indexed) when they are first tested; a point is only tested against a cell
+ * of the snapshot if it lies in its bounding box. Otherwise, the locator is built
+ * completely in the constructor. A locator can be queried from several threads.
+ */
+public class CellLocator {
+
+	// index of the ids of the cells by their bounding boxes (for points outside of the grid)
+	private PackedHilbertRTree index;
+	// cells indexed by id (for a snapshot, null until a cell is first tested)
+	private IndexedCell[] cells;
+	private ClusterSnapshot snapshot;
+	private CellGrid grid;
+	private CellAdjacency adjacency;
+
+	// how the points located with cursors were found: in a square covered by a cell, in the
+	// cell of the previous point, in an adjacent cell, with the grid or tree (or not at all)
+	private LongAdder numCovered = new LongAdder();
+	private LongAdder numPrevious = new LongAdder();
+	private LongAdder numAdjacent = new LongAdder();
+	private LongAdder numGlobal = new LongAdder();
+
+	// all fields are final, so a cell created by one thread can be used by any other thread
+	// without synchronization
+	private static class IndexedCell {
+		final PolygonMapObject cell;
+		final Envelope envelope;
+		final IndexedPointInAreaLocator locator;
+
+		IndexedCell(PolygonMapObject cell) {
+			this.cell = cell;
+			envelope = cell.getPolygon().getEnvelopeInternal();
+			locator = new IndexedPointInAreaLocator(cell.getPolygon());
+			// the interval index of the locator is built on the first query
+			locator.locate(cell.getPolygon().getCoordinate());
+		}
+	}
+
+	/**
+	 * @param cells the cells (cells with id 0 are ignored)
+	 */
+	public CellLocator(Collection<PolygonMapObject> cells) {
+		this(cells, null);
+	}
+
+	/**
+	 * @param cells the cells (cells with id 0 are ignored)
+	 * @param grid a grid built for these cells (null to use the tree for all points)
+	 */
+	public CellLocator(Collection<PolygonMapObject> cells, CellGrid grid) {
+		this.grid = grid;
+		int maxId = 0;
+		for (PolygonMapObject pmo : cells) {
+			maxId = Math.max(maxId, pmo.getId());
+		}
+		this.cells = new IndexedCell[maxId + 1];
+		int n = 0;
+		for (PolygonMapObject pmo : cells) {
+			if (pmo.getId() != 0) {
+				this.cells[pmo.getId()] = new IndexedCell(pmo);
+				n++;
+			}
+		}
+		double[] envelopes = new double[4 * n];
+		int[] ids = new int[n];
+		n = 0;
+		for (int id = 1; id < this.cells.length; id++) {
+			if (this.cells[id] != null) {
+				Envelope env = this.cells[id].envelope;
+				envelopes[4 * n] = env.getMinX();
+				envelopes[4 * n + 1] = env.getMinY();
+				envelopes[4 * n + 2] = env.getMaxX();
+				envelopes[4 * n + 3] = env.getMaxY();
+				ids[n++] = id;
+			}
+		}
+		index = PackedHilbertRTree.build(envelopes, ids);
+	}
+
+	/**
+	 * @param snapshot the snapshot with the cells and their tree (cells with id 0 are
+	 *       ignored)
+	 * @throws IOException if the tree of the snapshot cannot be read
+	 */
+	public CellLocator(ClusterSnapshot snapshot) throws IOException {
+		this.snapshot = snapshot;
+		cells = new IndexedCell[Math.max(snapshot.getMaxId(), 0) + 1];
+		index = snapshot.getCellIndex();
+	}
+
+	/**
+	 * returns the cell with the given id (null if there is no such cell), read from the
+	 * snapshot if it has not been read yet; threads that need the same cell at the same time
+	 * may both read it, but then either copy can be used
+	 */
+	private IndexedCell getIndexedCell(int id) {
+		IndexedCell ic = cells[id];
+		if (ic == null && snapshot != null && id != 0 && snapshot.hasCell(id)) {
+			ic = new IndexedCell(snapshot.getCell(id));
+			cells[id] = ic;
+		}
+		return ic;
+	}
+
+	/**
+	 * sets the adjacency of the cells, which is used by cursors to test the cells next to the
+	 * cell of the previous point
+	 * @param adjacency
+	 */
+	public void setAdjacency(CellAdjacency adjacency) {
+		this.adjacency = adjacency;
+	}
+
+	CellAdjacency getAdjacency() {
+		return adjacency;
+	}
+
+	/**
+	 * returns a new cursor for locating the points of a single track
+	 * @return
+	 */
+	public CellCursor newCursor() {
+		return new CellCursor(this);
+	}
+
+	/**
+	 * returns the id of the cell covering the square of the grid containing c, 0 if the
+	 * cells have to be tested (c is outside of the grid, or there is no grid) and -1 if no
+	 * cell intersects the square
+	 */
+	int getCoveringCell(Coordinate c) {
+		int square = grid == null ? -1 : grid.getSquare(c);
+		if (square < 0) {
+			return 0;
+		}
+		int id = grid.getCoveringCell(square);
+		return id == 0 && grid.getNumberOfCandidates(square) == 0 ? -1 : id;
+	}
+
+	PolygonMapObject getCell(int id) {
+		return getIndexedCell(id).cell;
+	}
+
+	/**
+	 * returns whether c lies in the interior of the cell with the given id
+	 */
+	boolean isInCell(int id, Coordinate c) {
+		if (id <= 0 || id >= cells.length) {
+			return false;
+		}
+		if (snapshot != null && cells[id] == null && !snapshot.isInEnvelope(id, c.x, c.y)) {
+			return false;
+		}
+		IndexedCell ic = getIndexedCell(id);
+		return ic != null && ic.envelope.contains(c) && ic.locator.locate(c) == Location.INTERIOR;
+	}
+
+	/**
+	 * adds the numbers of points a cursor located in each way to the statistics
+	 */
+	void addStatistics(CellCursor cursor) {
+		numCovered.add(cursor.getNumCovered());
+		numPrevious.add(cursor.getNumPrevious());
+		numAdjacent.add(cursor.getNumAdjacent());
+		numGlobal.add(cursor.getNumGlobal());
+	}
+
+	/**
+	 * returns how the points located with cursors were found
+	 * @return
+	 */
+	public String getStatistics() {
+		long covered = numCovered.sum();
+		long previous = numPrevious.sum();
+		long adjacent = numAdjacent.sum();
+		long global = numGlobal.sum();
+		long n = Math.max(covered + previous + adjacent + global, 1);
+		return String.format(
+				"located points: %d (covered square: %.1f%%, previous cell: %.1f%%, adjacent cell: %.1f%%, index: %.1f%%)",
+				covered + previous + adjacent + global, 100.0 * covered / n, 100.0 * previous / n,
+				100.0 * adjacent / n, 100.0 * global / n);
+	}
+
+	/**
+	 * returns the cell containing c in its interior (null if there is no such cell)
+	 * @param c
+	 * @return
+	 */
+	public PolygonMapObject getCellContainingPoint(Coordinate c) {
+		int square = grid == null ? -1 : grid.getSquare(c);
+		if (square >= 0) {
+			int id = grid.getCoveringCell(square);
+			if (id != 0) {
+				return getCell(id);
+			}
+			for (int i = 0; i < grid.getNumberOfCandidates(square); i++) {
+				int candidate = grid.getCandidate(square, i);
+				if (isInCell(candidate, c)) {
+					return getCell(candidate);
+				}
+			}
+			return null;
+		}
+
+		// the tree only reports cells whose bounding box contains c, the first one that
+		// contains c stops the query
+		int[] found = new int[1];
+		index.query(c.x, c.y, id -> {
+			if (isInCell(id, c)) {
+				found[0] = id;
+				return false;
+			}
+			return true;
+		});
+		return found[0] != 0 ? getCell(found[0]) : null;
+	}
+}
@@ -0,0 +1,234 @@
+package main;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+import index.PackedHilbertRTree;
+import mapViewer.PolygonMapObject;
+
+/**
+ * The clusters of a clustering as written by the clustering (clusters.snapshot): the points
+ * and the cell of every cluster, a table with the bounding boxes of the cells and a packed
+ * R-tree of these boxes.
+ *
+ * The file is mapped into memory, so opening it only reads the header and the ids of the
+ * table; the points of a cluster, the rings of a cell and the tree are read when they are
+ * requested.
+ * A snapshot is not changed after opening and can be read from several threads.
+ */
+public class ClusterSnapshot {
+
+	private static final int MAGIC = 0x4e534c43; // "CLSN" in little endian
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 40;
+	private static final int ENTRY_LENGTH = 64;
+
+	// offsets of the values in a table entry
+	private static final int NUM_POINTS = 4;
+	private static final int POINTS_OFFSET = 8;
+	private static final int NUM_RINGS = 16;
+	private static final int NUM_POLYGONS = 20;
+	private static final int CELL_OFFSET = 24;
+	private static final int ENVELOPE = 32;
+
+	private ByteBuffer buffer;
+	private long tableOffset;
+	private long treeOffset;
+	private int[] ids;
+	// number of the table entry of each id (-1 for ids without a cluster)
+	private int[] entries;
+
+	private GeometryFactory gf = new GeometryFactory();
+
+	private ClusterSnapshot() {
+	}
+
+	/**
+	 * maps a snapshot into memory
+	 * @param filename
+	 * @return
+	 * @throws IOException if the file is not a complete snapshot (or larger than 2 GB)
+	 */
+	public static ClusterSnapshot map(String filename) throws IOException {
+		ClusterSnapshot s = new ClusterSnapshot();
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+				throw new IOException(filename + " is not a cluster snapshot");
+			}
+			s.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer b = s.buffer;
+		int n = b.getInt(8);
+		s.tableOffset = b.getLong(16);
+		s.treeOffset = b.getLong(24);
+		if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION || b.getLong(32) != b.capacity() || n < 0
+				|| s.tableOffset < HEADER_LENGTH || s.tableOffset + (long) n * ENTRY_LENGTH != s.treeOffset
+				|| s.treeOffset > b.capacity()) {
+			throw new IOException(filename + " is not a complete cluster snapshot");
+		}
+		s.ids = new int[n];
+		int maxId = -1;
+		for (int i = 0; i < n; i++) {
+			s.ids[i] = b.getInt(s.entry(i));
+			if (s.ids[i] <= maxId) {
+				throw new IOException(filename + " is not sorted");
+			}
+			maxId = s.ids[i];
+		}
+		s.entries = new int[maxId + 1];
+		Arrays.fill(s.entries, -1);
+		for (int i = 0; i < n; i++) {
+			s.entries[s.ids[i]] = i;
+		}
+		return s;
+	}
+
+	private int entry(int i) {
+		return (int) (tableOffset + (long) i * ENTRY_LENGTH);
+	}
+
+	/**
+	 * returns the position of the table entry of a cluster (-1 if there is no such cluster)
+	 */
+	private int position(int id) {
+		return id >= 0 && id < entries.length && entries[id] >= 0 ? entry(entries[id]) : -1;
+	}
+
+	public int getNumberOfClusters() {
+		return ids.length;
+	}
+
+	/**
+	 * returns the ids of the clusters in increasing order
+	 * @return
+	 */
+	public int[] getIds() {
+		return ids.clone();
+	}
+
+	/**
+	 * returns the largest id of a cluster (-1 if there are no clusters)
+	 * @return
+	 */
+	public int getMaxId() {
+		return entries.length - 1;
+	}
+
+	/**
+	 * returns the packed points of a cluster (null if there is no such cluster)
+	 * @param id
+	 * @return
+	 */
+	public PackedCluster getCluster(int id) {
+		int p = position(id);
+		if (p < 0) {
+			return null;
+		}
+		int n = buffer.getInt(p + NUM_POINTS);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		// bulk copy from a view of its own, so that threads do not share a position
+		ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.position((int) buffer.getLong(p + POINTS_OFFSET));
+		DoubleBuffer points = view.asDoubleBuffer();
+		points.get(x);
+		points.get(y);
+		return new PackedCluster(x, y);
+	}
+
+	/**
+	 * returns whether a cluster has a cell
+	 * @param id
+	 * @return
+	 */
+	public boolean hasCell(int id) {
+		int p = position(id);
+		return p >= 0 && buffer.getInt(p + NUM_RINGS) > 0;
+	}
+
+	/**
+	 * returns whether (x, y) lies in the bounding box of the cell of a cluster (false if
+	 * there is no such cell), without reading the cell
+	 */
+	boolean isInEnvelope(int id, double x, double y) {
+		int p = position(id);
+		if (p < 0) {
+			return false;
+		}
+		p += ENVELOPE;
+		return x >= buffer.getDouble(p) && y >= buffer.getDouble(p + 8) && x <= buffer.getDouble(p + 16)
+				&& y <= buffer.getDouble(p + 24);
+	}
+
+	/**
+	 * reads the tree of the bounding boxes of the cells (the items are the ids of the
+	 * clusters)
+	 * @return
+	 * @throws IOException if the tree is not valid
+	 */
+	public PackedHilbertRTree getCellIndex() throws IOException {
+		ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		b.position((int) treeOffset);
+		try {
+			PackedHilbertRTree tree = PackedHilbertRTree.read(b);
+			if (b.position() != b.capacity()) {
+				throw new IllegalArgumentException("data after the tree");
+			}
+			return tree;
+		} catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException ex) {
+			throw new IOException("cell index: " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * reads the cell of a cluster (null if there is no cell)
+	 * @param id
+	 * @return
+	 */
+	public PolygonMapObject getCell(int id) {
+		if (!hasCell(id)) {
+			return null;
+		}
+		int p = position(id);
+		int numRings = buffer.getInt(p + NUM_RINGS);
+		int numPolygons = buffer.getInt(p + NUM_POLYGONS);
+		int offset = (int) buffer.getLong(p + CELL_OFFSET);
+		// number of rings of each polygon and number of points of each ring, padded to 8
+		// bytes, then the points of all rings
+		int ringLengths = offset + 4 * numPolygons;
+		int coords = offset + 8 * ((numPolygons + numRings + 1) / 2);
+		LinearRing[] rings = new LinearRing[numRings];
+		for (int r = 0; r < numRings; r++) {
+			Coordinate[] ring = new Coordinate[buffer.getInt(ringLengths + 4 * r)];
+			for (int i = 0; i < ring.length; i++) {
+				ring[i] = new Coordinate(buffer.getDouble(coords), buffer.getDouble(coords + 8));
+				coords += 16;
+			}
+			rings[r] = gf.createLinearRing(ring);
+		}
+		Polygon[] polygons = new Polygon[numPolygons];
+		int shell = 0;
+		for (int i = 0; i < numPolygons; i++) {
+			int polygonRings = buffer.getInt(offset + 4 * i);
+			polygons[i] = gf.createPolygon(rings[shell], Arrays.copyOfRange(rings, shell + 1, shell + polygonRings));
+			shell += polygonRings;
+		}
+		PolygonMapObject pmo = numPolygons == 1 ? new PolygonMapObject(polygons[0])
+				: new PolygonMapObject(gf.createMultiPolygon(polygons));
+		pmo.setId(id);
+		return pmo;
+	}
+}
@@ -0,0 +1,115 @@
+package main;
+
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPoint;
+
+/**
+ * Compares counting the points of a cluster in a wedge on the multipoint, on the packed
+ * coordinates of the cluster and with the trig-free wedge test (scalar and, if available,
+ * on the vector kernel), for clusters of different size (random points and wedges). Exits
+ * with status 1 if any count differs.
+ *
+ * Arguments: number of queries per cluster size (default 200000)
+ */
+public class CountPointsBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int queries = 200000;
+		if (args.length > 0) {
+			queries = Integer.parseInt(args[0]);
+		}
+		int[] sizes = { 2, 4, 8, 16, 32, 64, 128, 256, 512 };
+		double maxDif = 30.0 * Math.PI / 180.0;
+		Random random = new Random(42);
+		GeometryFactory gf = new GeometryFactory();
+
+		double cosMaxDif = Math.cos(maxDif);
+		double sinMaxDif = Math.sin(maxDif);
+
+		boolean vectorized = PackedCluster.isVectorized();
+		System.out.println("vector kernel: " + (vectorized ? "yes" : "no (scalar loop)"));
+		System.out.println("k\tmultipoint [ns]\tpacked [ns]\twedge [ns]\tvector [ns]\tspeedup");
+		int totalMismatches = 0;
+		for (int k : sizes) {
+			// cluster of k points in a square of 100m, query points in a square of 1km
+			Coordinate[] members = new Coordinate[k];
+			for (int i = 0; i < k; i++) {
+				members[i] = new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100);
+			}
+			MultiPoint multiPoint = gf.createMultiPoint(members);
+			PackedCluster packed = new PackedCluster(multiPoint);
+			Coordinate[] points = new Coordinate[queries];
+			double[] dx = new double[queries];
+			double[] dy = new double[queries];
+			double[] angles = new double[queries];
+			for (int q = 0; q < queries; q++) {
+				points[q] = new Coordinate(random.nextDouble() * 1000 - 450, random.nextDouble() * 1000 - 450);
+				dx[q] = random.nextGaussian();
+				dy[q] = random.nextGaussian();
+				angles[q] = PackedCluster.direction(dx[q], dy[q]);
+			}
+
+			// all must return the same counts
+			int mismatches = 0;
+			for (int q = 0; q < queries; q++) {
+				int expected = TrackTruncator.countPointsInRange(points[q], multiPoint, angles[q], maxDif);
+				if (packed.countPointsInRange(points[q], angles[q], maxDif) != expected
+						|| packed.countPointsInWedgeScalar(points[q], dx[q], dy[q], cosMaxDif, sinMaxDif,
+								maxDif) != expected
+						|| packed.countPointsInWedge(points[q], dx[q], dy[q], cosMaxDif, sinMaxDif, maxDif) != expected) {
+					mismatches++;
+				}
+			}
+			if (mismatches > 0) {
+				System.out.println("k=" + k + ": " + mismatches + " different counts");
+				totalMismatches += mismatches;
+			}
+
+			// best of several rounds (the first rounds also warm up the jit)
+			long bestMultiPoint = Long.MAX_VALUE;
+			long bestPacked = Long.MAX_VALUE;
+			long bestWedge = Long.MAX_VALUE;
+			long bestVector = Long.MAX_VALUE;
+			long sum = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long t0 = System.nanoTime();
+				for (int q = 0; q < queries; q++) {
+					sum += TrackTruncator.countPointsInRange(points[q], multiPoint, angles[q], maxDif);
+				}
+				long t1 = System.nanoTime();
+				for (int q = 0; q < queries; q++) {
+					sum += packed.countPointsInRange(points[q], angles[q], maxDif);
+				}
+				long t2 = System.nanoTime();
+				for (int q = 0; q < queries; q++) {
+					sum += packed.countPointsInWedgeScalar(points[q], dx[q], dy[q], cosMaxDif, sinMaxDif, maxDif);
+				}
+				long t3 = System.nanoTime();
+				if (vectorized) {
+					for (int q = 0; q < queries; q++) {
+						sum += packed.countPointsInWedge(points[q], dx[q], dy[q], cosMaxDif, sinMaxDif, maxDif);
+					}
+				}
+				long t4 = System.nanoTime();
+				bestMultiPoint = Math.min(bestMultiPoint, t1 - t0);
+				bestPacked = Math.min(bestPacked, t2 - t1);
+				bestWedge = Math.min(bestWedge, t3 - t2);
+				bestVector = Math.min(bestVector, t4 - t3);
+			}
+			long best = vectorized ? Math.min(bestWedge, bestVector) : bestWedge;
+			System.out.println(k + "\t" + String.format("%.1f", (double) bestMultiPoint / queries) + "\t"
+					+ String.format("%.1f", (double) bestPacked / queries) + "\t"
+					+ String.format("%.1f", (double) bestWedge / queries) + "\t"
+					+ (vectorized ? String.format("%.1f", (double) bestVector / queries) : "-") + "\t"
+					+ String.format("%.2f", (double) bestMultiPoint / best) + "\t(" + sum + ")");
+		}
+		if (totalMismatches > 0) {
+			System.exit(1);
+		}
+	}
+}
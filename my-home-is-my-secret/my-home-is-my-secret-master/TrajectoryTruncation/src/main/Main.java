@@ -1,36 +1,23 @@
 package main;
 
-import java.awt.Color;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.stream.Collectors;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.MultiPoint;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
-import com.vividsolutions.jts.index.strtree.STRtree;
-import com.vividsolutions.jump.feature.AttributeType;
-import com.vividsolutions.jump.feature.BasicFeature;
-import com.vividsolutions.jump.feature.FeatureCollection;
-import com.vividsolutions.jump.feature.FeatureDataset;
-import com.vividsolutions.jump.feature.FeatureSchema;
-import com.vividsolutions.jump.io.DriverProperties;
-import com.vividsolutions.jump.io.ShapefileWriter;
 
-import mapViewer.LineMapObject;
-import mapViewer.ListLayer;
-import mapViewer.MapObject;
-import mapViewer.MultiPointMapObject;
-import mapViewer.PolygonMapObject;
+import io.GeometryReader;
+import io.GpsLogReader;
+import io.ShapefileStreamReader;
+import io.ShapefileStreamWriter;
+import io.ShapefileStreamWriter.Field;
+import io.TransverseMercator;
 
 public class Main {
 
@@ -41,8 +28,32 @@ public class Main {
 	// for testing point within triangle, length of triangle leg is assumed infinity
 	private static double r = 100.0;
 
+	// number of tracks that are truncated in parallel before their results are written
+	private static final int CHUNK_SIZE = 10000;
+
 	public static void main(String[] args) {
 
+		// options start with "--", all other arguments are positional
+		boolean writeTriangles = false;
+		int port = -1;
+		String gpsFile = null;
+		double maxGap = 600;
+		ArrayList<String> positional = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equals("--triangles")) {
+				writeTriangles = true;
+			} else if (arg.startsWith("--serve=")) {
+				port = Integer.parseInt(arg.substring("--serve=".length()));
+			} else if (arg.startsWith("--gps=")) {
+				gpsFile = arg.substring("--gps=".length());
+			} else if (arg.startsWith("--gap=")) {
+				maxGap = Double.parseDouble(arg.substring("--gap=".length()));
+			} else {
+				positional.add(arg);
+			}
+		}
+		args = positional.toArray(new String[0]);
+
 		// define parameter beta for triangles
 		if (args.length > 0) {
 			beta = Double.parseDouble(args[0]);
@@ -62,275 +73,117 @@ public class Main {
 				path = path.substring(0, path.length() - 1);
 		}
 
-		// shp file with GPS tracks
-		ListLayer tracksList = ListLayer.readFromShapefile(
-				path + File.separator + "input" + File.separator + "synthetic_trajectories_hel.shp", Color.DARK_GRAY);
-
-		// shp files with a polygons corresponding to the merged voronoi cells for each
-		// cluster
-		ListLayer cellsList = ListLayer
-				.readFromShapefile(path + File.separator + "input" + File.separator + "cells.shp", Color.DARK_GRAY);
-
-		// shp file with a multipoint for each cluster
-		ListLayer clustersList = ListLayer.readFromShapefile(
-				path + File.separator + "input" + File.separator + "multipoints.shp", Color.DARK_GRAY);
-
-		GeometryFactory gf = new GeometryFactory();
-
-		// spatial index containing, for each cluster c, the corresponding polygonal
-		// region
-		STRtree cellsSpatialIndex = new STRtree();
-		// data structure containing, for each cluster c, the id and the corresponding
-		// polygonal region
-		TreeMap<Integer, PolygonMapObject> cellsTree = new TreeMap<Integer, PolygonMapObject>();
-		for (MapObject o : cellsList.getMyObjects()) {
-			PolygonMapObject pmo = (PolygonMapObject) o;
-			cellsTree.put(pmo.getId(), pmo);
-			cellsSpatialIndex.insert(pmo.getPolygon().getEnvelopeInternal(), pmo);
+		// shp file with GPS tracks (read track by track while truncating); with "--gps=<csv>"
+		// the tracks are read from a GPS log instead and projected like the cells (see
+		// GpsLogReader; a new track starts after a gap of more than "--gap=<seconds>")
+		String tracksFile = path + File.separator + "input" + File.separator + "synthetic_trajectories_hel.shp";
+		String prjFile = path + File.separator + "input" + File.separator + "centroids-utm.prj";
+
+		// cells and clusters of the clustering in the input folder
+		TruncationIndex index;
+		try {
+			index = TruncationIndex.load(path + File.separator + "input", beta, r);
+		} catch (IOException ex) {
+			System.out.println("truncation: " + ex);
+			return;
 		}
 
-		// data structure containing, for each cluster c, the id and the corresponding
-		// multipoint
-		TreeMap<Integer, MultiPointMapObject> clustersTree = new TreeMap<Integer, MultiPointMapObject>();
-		for (MapObject o : clustersList.getMyObjects()) {
-			MultiPointMapObject pmo = (MultiPointMapObject) o;
-			clustersTree.put(pmo.getId(), pmo);
-		}
-
-		// list of all tracks to be processed
-		LinkedList<LineString> tracks = new LinkedList<>();
-		for (MapObject o : tracksList.getMyObjects()) {
-			LineMapObject ls = (LineMapObject) o;
-			tracks.add(ls.getMyLineString());
+		// service mode: keep the index loaded and truncate the tracks of http requests
+		if (port >= 0) {
+			try {
+				new TruncationService(index, port, beta, r).start();
+			} catch (IOException ex) {
+				System.out.println("truncation: " + ex);
+			}
+			return;
 		}
 
-		LinkedList<LineString> newLineStrings = new LinkedList<>();
-		LinkedList<Polygon> triangles = new LinkedList<>();
-		ArrayList<Double> triangleRotations = new ArrayList<>();
-
-		int finalStart = -1, finalEnd = -1;
-
-		// Now truncate tracks
-		for (LineString ls : tracks) {
-			//
-			Coordinate firstPoint = ls.getCoordinateN(0);
-			Coordinate lastPoint = ls.getCoordinateN(ls.getNumPoints() - 1);
-
-			// identify the region containing the first and last trajectory point
-			PolygonMapObject firstCell = getCellContainingPoint(cellsSpatialIndex, firstPoint);
-			PolygonMapObject lastCell = getCellContainingPoint(cellsSpatialIndex, lastPoint);
-			MultiPointMapObject firstCluster = clustersTree.get(firstCell.getId());
-			MultiPointMapObject lastCluster = clustersTree.get(lastCell.getId());
+		// Now truncate tracks; tracks are independent of each other, so the tracks of a chunk
+		// are processed in parallel (the results are collected in the order of the tracks)
+		TrackTruncator truncator = index.getTruncator();
+		CellLocator cellLocator = index.getCellLocator();
+		truncator.setRecordTriangles(writeTriangles);
+		new File(path + File.separator + "output").mkdir();
 
-			// find first point of track to keep
-			int left = 0;
-			while (left < ls.getNumPoints()) {
-				boolean keepPoint = true; // by default a point is kept
-				Coordinate currentPoint = ls.getCoordinateN(left);
-				PolygonMapObject currentCell = getCellContainingPoint(cellsSpatialIndex, currentPoint);
-				if (firstCell == currentCell) {
-					keepPoint = false; // point lies in region of home cluster - do not keep!
-				} else if (left < ls.getNumPoints() - 1) {
-					Coordinate prevPoint = ls.getCoordinateN(left + 1);
-					double alpha = Math.atan2(currentPoint.y - prevPoint.y, currentPoint.x - prevPoint.x);
-					if (alpha < 0) {
-						alpha += 2 * Math.PI;
+		// the truncated tracks are written chunk by chunk; the tested triangles (for
+		// visualization only) are written while the tracks are processed, if requested with
+		// "--triangles"
+		String truncatedFile = path + File.separator + "output" + File.separator + "truncated.shp";
+		String trianglesFile = path + File.separator + "output" + File.separator + "triangles.shp";
+		try (GeometryReader tracksReader = gpsFile != null
+				? new GpsLogReader(gpsFile, TransverseMercator.fromPrj(prjFile), new GeometryFactory(), maxGap)
+				: new ShapefileStreamReader(tracksFile, new GeometryFactory());
+				ShapefileStreamWriter truncatedWriter = new ShapefileStreamWriter(truncatedFile,
+						ShapefileStreamWriter.POLYLINE);
+				ShapefileStreamWriter triangleWriter = writeTriangles
+				? new ShapefileStreamWriter(trianglesFile, ShapefileStreamWriter.POLYGON,
+						Field.numeric("isFinal", 11, 0), Field.numeric("direction", 33, 16))
+				: null) {
+			// index of the last triangle at the start and at the end of the last track
+			int finalStart = -1, finalEnd = -1;
+			ArrayList<LineString> tracks = new ArrayList<>(CHUNK_SIZE);
+			while (readTracks(tracksReader, tracks)) {
+				List<TruncationResult> results = tracks.parallelStream().map(truncator::truncate)
+						.collect(Collectors.toList());
+				for (TruncationResult result : results) {
+					if (result.getTruncated() != null) {
+						truncatedWriter.write(result.getTruncated());
 					}
-					// construct triangle with side length r
-					double alpha1 = alpha + beta * Math.PI / 180.0;
-					double x1 = currentPoint.x + r * Math.cos(alpha1);
-					double y1 = currentPoint.y + r * Math.sin(alpha1);
-
-					double alpha2 = alpha - beta * Math.PI / 180.0;
-					double x2 = currentPoint.x + r * Math.cos(alpha2);
-					double y2 = currentPoint.y + r * Math.sin(alpha2);
-
-					Coordinate[] triangleCoords = new Coordinate[4];
-					triangleCoords[0] = currentPoint;
-					triangleCoords[1] = new Coordinate(x1, y1);
-					triangleCoords[2] = new Coordinate(x2, y2);
-					triangleCoords[3] = currentPoint;
-					Polygon triangle = gf.createPolygon(triangleCoords);
-					triangles.add(triangle);
-					triangleRotations.add(alpha);
-
-					// i = number of points of the home cluster contained in the current triangle
-					int i = countPointsInRange(currentPoint, firstCluster.getMultiPoint(), alpha,
-							beta * Math.PI / 180.0);
-
-					// if the current triangle contains some but not all points of the home cluster,
-					// do not keep!
-					if (i != 0 && i != firstCluster.getMultiPoint().getNumGeometries()) {
-						keepPoint = false;
+					if (triangleWriter != null) {
+						finalStart = triangleWriter.getNumberOfRecords() + result.getNumStartTriangles() - 1;
+						for (int i = 0; i < result.getTriangles().size(); i++) {
+							triangleWriter.write(result.getTriangles().get(i), 0,
+									result.getTriangleRotations().get(i) * 180.0 / Math.PI);
+						}
+						finalEnd = triangleWriter.getNumberOfRecords() - 1;
 					}
-
-				}
-
-				// decide whether or not to keep the current point - if not, continue with next
-				if (keepPoint) {
-					break;
-				} else {
-					left++;
 				}
 			}
-			finalStart = triangles.size() - 1;
-
-			// this takes care of the other end of the trajectory, in the same way as before
-			int right = ls.getNumPoints() - 1;
-			while (right >= 0) {
-				boolean keepPoint = true;
-				Coordinate currentPoint = ls.getCoordinateN(right);
-				PolygonMapObject currentCell = getCellContainingPoint(cellsSpatialIndex, currentPoint);
-				if (lastCell == currentCell) {
-					keepPoint = false;
-				} else if (right > 0) {
-					Coordinate prevPoint = ls.getCoordinateN(right - 1);
-					double alpha = Math.atan2(currentPoint.y - prevPoint.y, currentPoint.x - prevPoint.x);
-					if (alpha < 0) {
-						alpha += 2 * Math.PI;
-					}
-					// construct triangle with side length r
-					double alpha1 = alpha + beta * Math.PI / 180.0;
-					double x1 = currentPoint.x + r * Math.cos(alpha1);
-					double y1 = currentPoint.y + r * Math.sin(alpha1);
-
-					double alpha2 = alpha - beta * Math.PI / 180.0;
-					double x2 = currentPoint.x + r * Math.cos(alpha2);
-					double y2 = currentPoint.y + r * Math.sin(alpha2);
-
-					Coordinate[] triangleCoords = new Coordinate[4];
-					triangleCoords[0] = currentPoint;
-					triangleCoords[1] = new Coordinate(x1, y1);
-					triangleCoords[2] = new Coordinate(x2, y2);
-					triangleCoords[3] = currentPoint;
-					Polygon triangle = gf.createPolygon(triangleCoords);
-					triangles.add(triangle);
-					triangleRotations.add(alpha);
-
-					int i = countPointsInRange(currentPoint, lastCluster.getMultiPoint(), alpha,
-							beta * Math.PI / 180.0);
-					// System.out.println("points in range:" + i + " of " +
-					// lastCluster.getMultiPoint().getNumGeometries());
-					if (i != 0 && i != lastCluster.getMultiPoint().getNumGeometries()) {
-						keepPoint = false;
-					}
+			if (triangleWriter != null) {
+				if (finalStart >= 0) {
+					triangleWriter.update(finalStart, 0, 1);
 				}
-				if (keepPoint) {
-					break;
-				} else {
-					right--;
+				if (finalEnd >= 0) {
+					triangleWriter.update(finalEnd, 0, 1);
 				}
+				triangleWriter.finish();
+				System.out.println("Shape written to " + trianglesFile);
 			}
-			finalEnd = triangles.size() - 1;
-
-			// create new line string
-			if (0 <= left && left < right && right < ls.getNumPoints()) {
-				Coordinate[] coords = new Coordinate[right - left + 1];
-				for (int i = 0; i < coords.length; i++) {
-					coords[i] = ls.getCoordinateN(i + left);
-				}
-
-				LineString newls = gf.createLineString(coords);
-				newLineStrings.add(newls);
+			truncatedWriter.finish();
+			if (tracksReader instanceof GpsLogReader) {
+				GpsLogReader gpsReader = (GpsLogReader) tracksReader;
+				System.out.println("gps records: " + gpsReader.getNumberOfRecords() + ", skipped lines: "
+						+ gpsReader.getNumberOfSkippedLines() + ", skipped tracks: "
+						+ gpsReader.getNumberOfSkippedTracks());
 			}
-
+			System.out.println(cellLocator.getStatistics());
+			System.out.println("Shape written to " + truncatedFile);
+		} catch (IOException ex) {
+			System.out.println("truncation: " + ex);
 		}
-
-		new File(path + File.separator + "output").mkdir();
-		exportLineStrings(path + File.separator + "output" + File.separator + "truncated.shp", newLineStrings);
-		exportTriangles(path + File.separator + "output" + File.separator + "triangles.shp", triangles,
-				triangleRotations, finalStart, finalEnd);
 	}
 
-	private static int countPointsInRange(Coordinate currentPoint, MultiPoint multiPoint, double startAngle,
-			double maxDif) {
-		int counter = 0;
-		for (int i = 0; i < multiPoint.getNumGeometries(); i++) {
-			Point p = (Point) multiPoint.getGeometryN(i);
-			double alpha = Math.atan2(p.getY() - currentPoint.y, p.getX() - currentPoint.x);
-			if (alpha < 0) {
-				alpha += 2 * Math.PI;
+	/**
+	 * replaces the tracks in the list by the next (at most CHUNK_SIZE) tracks of the reader,
+	 * every part of a polyline is a track; returns false if there are no more tracks
+	 * 
+	 * @param reader
+	 * @param tracks
+	 * @return
+	 * @throws IOException
+	 */
+	private static boolean readTracks(GeometryReader reader, List<LineString> tracks) throws IOException {
+		tracks.clear();
+		while (tracks.size() < CHUNK_SIZE) {
+			Geometry g = reader.next();
+			if (g == null) {
+				break;
 			}
-			double dAlpha = Math.abs(alpha - startAngle);
-			if (dAlpha <= maxDif || 2 * Math.PI - dAlpha <= maxDif) {
-				counter++;
-			}
-		}
-		return counter;
-	}
-
-	public static PolygonMapObject getCellContainingPoint(STRtree cellsSpatialIndex, Coordinate c) {
-		Envelope env = new Envelope();
-		env.expandToInclude(c);
-		@SuppressWarnings("rawtypes") // jts STRtree only returns raw type
-		List l = cellsSpatialIndex.query(env);
-		for (Object o : l) {
-			PolygonMapObject pmo = (PolygonMapObject) o;
-			Coordinate[] carray = { c };
-			CoordinateArraySequence ca = new CoordinateArraySequence(carray);
-			if (pmo.getPolygon().contains(new Point(ca, new GeometryFactory()))) {
-				if (pmo.getId() != 0)
-					return pmo;
-			}
-		}
-		return null;
-
-	}
-
-	public static void exportTriangles(String filename, LinkedList<Polygon> triangles,
-			ArrayList<Double> triangleRotations, int finalStart, int finalEnd) {
-		if (filename.endsWith(".shp")) {
-			ShapefileWriter shp_output = new ShapefileWriter();
-			DriverProperties dpw = new DriverProperties(filename);
-			try {
-				FeatureSchema fs = new FeatureSchema();
-				fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-				fs.addAttribute("isFinal", AttributeType.INTEGER);
-				fs.addAttribute("direction", AttributeType.DOUBLE);
-				LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-
-				int n = 0;
-				for (Polygon p : triangles) {
-					BasicFeature bf = new BasicFeature(fs);
-					bf.setGeometry(p);
-					bf.setAttribute("isFinal", finalStart == n || finalEnd == n ? 1 : 0);
-					bf.setAttribute("direction", triangleRotations.get(n++) * 180.0 / Math.PI);
-					myList.push(bf);
-				}
-
-				FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-				System.out.println("Shape written to " + filename);
-				shp_output.write(myFeatureCollection, dpw);
-
-			} catch (Exception ex) {
-				System.out.println("shp_write: " + ex);
-			}
-		}
-	}
-
-	public static void exportLineStrings(String filename, LinkedList<LineString> ls) {
-		if (filename.endsWith(".shp")) {
-			ShapefileWriter shp_output = new ShapefileWriter();
-			DriverProperties dpw = new DriverProperties(filename);
-			try {
-				FeatureSchema fs = new FeatureSchema();
-				fs.addAttribute("SHAPE", AttributeType.GEOMETRY);
-				LinkedList<BasicFeature> myList = new LinkedList<BasicFeature>();
-
-				for (LineString l : ls) {
-					BasicFeature bf = new BasicFeature(fs);
-					bf.setGeometry(l);
-					myList.push(bf);
-				}
-
-				FeatureCollection myFeatureCollection = new FeatureDataset(myList, fs);
-				System.out.println("Shape written to " + filename);
-				shp_output.write(myFeatureCollection, dpw);
-
-			} catch (Exception ex) {
-				System.out.println("shp_write: " + ex);
+			for (int i = 0; i < g.getNumGeometries(); i++) {
+				tracks.add((LineString) g.getGeometryN(i));
 			}
 		}
+		return !tracks.isEmpty();
 	}
 
 }
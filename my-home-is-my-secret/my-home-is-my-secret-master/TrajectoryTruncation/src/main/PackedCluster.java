@@ -0,0 +1,226 @@
+package main;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.MultiPoint;
+
+/**
+ * The points of a cluster, packed into two coordinate arrays.
+ *
+ * Counting the points in a wedge reads the arrays sequentially instead of following a
+ * Point object (and its coordinate sequence) per member of the multipoint.
+ *
+ * The wedge test runs on several points per instruction with main.VectorWedgeKernel (in
+ * src-vector) if this class is on the class path and the incubating vector API is
+ * available, i.e., if src-vector is compiled and the program is run with
+ * "--add-modules jdk.incubator.vector" (Java 16 or later). Otherwise the scalar loop is used;
+ * both return the same counts.
+ */
+public class PackedCluster {
+
+	// relative width of the band around the boundary of a wedge in which the atan2 test is
+	// used (far above the rounding errors of both tests, which are a few ulps)
+	static final double GUARD = 1e-9;
+
+	// the vector kernel (null if not available)
+	private static final WedgeKernel VECTOR_KERNEL = loadVectorKernel();
+
+	private double[] x;
+	private double[] y;
+	// bounding box of the points
+	private double minX = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	public PackedCluster(MultiPoint multiPoint) {
+		int n = multiPoint.getNumGeometries();
+		x = new double[n];
+		y = new double[n];
+		for (int i = 0; i < n; i++) {
+			Coordinate c = multiPoint.getGeometryN(i).getCoordinate();
+			x[i] = c.x;
+			y[i] = c.y;
+		}
+		computeBoundingBox();
+	}
+
+	/**
+	 * @param x the x coordinates of the points (not copied)
+	 * @param y the y coordinates of the points (not copied)
+	 */
+	PackedCluster(double[] x, double[] y) {
+		this.x = x;
+		this.y = y;
+		computeBoundingBox();
+	}
+
+	private void computeBoundingBox() {
+		for (int i = 0; i < x.length; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+	}
+
+	public int size() {
+		return x.length;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	/**
+	 * returns the number of points p of the cluster whose direction seen from c deviates by
+	 * at most maxDif from startAngle (the direction of p is atan2(p - c) in [0, 2pi), as in
+	 * {@link TrackTruncator#countPointsInRange(Coordinate, MultiPoint, double, double)})
+	 * @param c
+	 * @param startAngle in [0, 2pi)
+	 * @param maxDif
+	 * @return
+	 */
+	public int countPointsInRange(Coordinate c, double startAngle, double maxDif) {
+		double cx = c.x;
+		double cy = c.y;
+		double[] x = this.x;
+		double[] y = this.y;
+		int counter = 0;
+		for (int i = 0; i < x.length; i++) {
+			counter += isInRange(x[i] - cx, y[i] - cy, startAngle, maxDif) ? 1 : 0;
+		}
+		return counter;
+	}
+
+	/**
+	 * returns the same count as {@link #countPointsInRange(Coordinate, double, double)} for
+	 * startAngle = direction(dx, dy), but without trigonometric functions for points that
+	 * are not (almost) on the boundary of the wedge
+	 * 
+	 * The angle between d = (dx, dy) and v = p - c is at most maxDif iff
+	 * sin(maxDif) * (d . v) - cos(maxDif) * |d x v| >= 0 (for maxDif in [0, pi]). If this
+	 * value is within a small band around 0 relative to |d| |v|, rounding could decide
+	 * differently than the atan2 test, so the atan2 test is used for such points (and for
+	 * p = c or d = 0, where the direction is not defined).
+	 * @param c
+	 * @param dx
+	 * @param dy
+	 * @param cosMaxDif cos(maxDif)
+	 * @param sinMaxDif sin(maxDif)
+	 * @param maxDif
+	 * @return
+	 */
+	public int countPointsInWedge(Coordinate c, double dx, double dy, double cosMaxDif, double sinMaxDif,
+			double maxDif) {
+		if (maxDif >= Math.PI) {
+			return x.length; // every direction deviates by at most pi
+		}
+		if (maxDif < 0 || (dx == 0 && dy == 0)) {
+			return countPointsInRange(c, direction(dx, dy), maxDif);
+		}
+		if (VECTOR_KERNEL != null) {
+			return VECTOR_KERNEL.count(x, y, c.x, c.y, dx, dy, cosMaxDif, sinMaxDif, maxDif);
+		}
+		return countInWedge(x, y, 0, x.length, c.x, c.y, dx, dy, cosMaxDif, sinMaxDif, maxDif);
+	}
+
+	/**
+	 * returns the same count as {@link #countPointsInWedge}, always with the scalar loop
+	 */
+	int countPointsInWedgeScalar(Coordinate c, double dx, double dy, double cosMaxDif, double sinMaxDif,
+			double maxDif) {
+		if (maxDif >= Math.PI) {
+			return x.length;
+		}
+		if (maxDif < 0 || (dx == 0 && dy == 0)) {
+			return countPointsInRange(c, direction(dx, dy), maxDif);
+		}
+		return countInWedge(x, y, 0, x.length, c.x, c.y, dx, dy, cosMaxDif, sinMaxDif, maxDif);
+	}
+
+	/**
+	 * returns whether the wedge test runs on the vector kernel
+	 * @return
+	 */
+	public static boolean isVectorized() {
+		return VECTOR_KERNEL != null;
+	}
+
+	/**
+	 * the scalar wedge test for the points from (inclusive) to to (exclusive), for maxDif in
+	 * [0, pi) and (dx, dy) != 0
+	 */
+	static int countInWedge(double[] x, double[] y, int from, int to, double cx, double cy, double dx,
+			double dy, double cosMaxDif, double sinMaxDif, double maxDif) {
+		int counter = 0;
+		for (int i = from; i < to; i++) {
+			double vx = x[i] - cx;
+			double vy = y[i] - cy;
+			double dot = dx * vx + dy * vy;
+			double cross = Math.abs(dx * vy - dy * vx);
+			double f = sinMaxDif * dot - cosMaxDif * cross;
+			double band = GUARD * (Math.abs(dot) + cross);
+			if (f > band) {
+				counter++;
+			} else if (f >= -band && isInRange(vx, vy, direction(dx, dy), maxDif)) {
+				counter++;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * A wedge test for the points of a cluster, with the arguments and result of
+	 * {@link PackedCluster#countInWedge} for all points
+	 */
+	interface WedgeKernel {
+		int count(double[] x, double[] y, double cx, double cy, double dx, double dy, double cosMaxDif,
+				double sinMaxDif, double maxDif);
+	}
+
+	private static WedgeKernel loadVectorKernel() {
+		try {
+			return (WedgeKernel) Class.forName("main.VectorWedgeKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			// not compiled, or jdk.incubator.vector not available
+			return null;
+		}
+	}
+
+	/**
+	 * returns the direction of (dx, dy) in [0, 2pi)
+	 */
+	public static double direction(double dx, double dy) {
+		double alpha = Math.atan2(dy, dx);
+		if (alpha < 0) {
+			alpha += 2 * Math.PI;
+		}
+		return alpha;
+	}
+
+	private static boolean isInRange(double vx, double vy, double startAngle, double maxDif) {
+		double alpha = direction(vx, vy);
+		double dAlpha = Math.abs(alpha - startAngle);
+		return dAlpha <= maxDif || 2 * Math.PI - dAlpha <= maxDif;
+	}
+}
@@ -0,0 +1,84 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import io.ShapefileStreamReader;
+
+/**
+ * Checks that the streaming truncation (StreamingTruncator) keeps the same points as the
+ * batch truncation (TrackTruncator) for the tracks of the input folder, feeding the points
+ * of every track one by one, and reports how many points were released before the end of
+ * their track and the maximum number of points held for a track.
+ *
+ * Arguments: beta (default 30), path (default: the current directory)
+ */
+public class StreamingConsistencyCheck {
+
+	public static void main(String[] args) throws IOException {
+		double beta = 30.0;
+		if (args.length > 0) {
+			beta = Double.parseDouble(args[0]);
+		}
+		String path = new File("").getAbsolutePath();
+		if (args.length > 1) {
+			path = args[1];
+		}
+		TruncationIndex index = TruncationIndex.load(path + File.separator + "input", beta, 100.0);
+		TrackTruncator truncator = index.getTruncator();
+		truncator.setRecordTriangles(false);
+		// no bound, so that no point is suppressed
+		StreamingTruncator streaming = index.newStreamingTruncator(Integer.MAX_VALUE);
+
+		int numTracks = 0;
+		int mismatches = 0;
+		long numEarly = 0;
+		long numKept = 0;
+		int maxHeld = 0;
+		try (ShapefileStreamReader reader = new ShapefileStreamReader(
+				path + File.separator + "input" + File.separator + "synthetic_trajectories_hel.shp",
+				new GeometryFactory())) {
+			Geometry g;
+			while ((g = reader.next()) != null) {
+				for (int i = 0; i < g.getNumGeometries(); i++) {
+					LineString ls = (LineString) g.getGeometryN(i);
+					String device = "track" + numTracks++;
+					List<Coordinate> released = new ArrayList<Coordinate>();
+					for (Coordinate c : ls.getCoordinates()) {
+						released.addAll(streaming.add(device, c));
+						maxHeld = Math.max(maxHeld, streaming.getNumberOfHeldPoints(device));
+					}
+					numEarly += released.size();
+					released.addAll(streaming.finish(device));
+					numKept += released.size();
+
+					LineString expected = truncator.truncate(ls).getTruncated();
+					List<Coordinate> expectedPoints = new ArrayList<Coordinate>();
+					if (expected != null) {
+						for (Coordinate c : expected.getCoordinates()) {
+							expectedPoints.add(c);
+						}
+					}
+					if (!released.equals(expectedPoints)) {
+						mismatches++;
+						System.out.println(device + ": " + released.size() + " points instead of "
+								+ expectedPoints.size());
+					}
+				}
+			}
+		}
+		System.out.println(numTracks + " tracks, " + mismatches + " mismatches");
+		System.out.println(numKept + " points kept, " + numEarly + " released before the end of their track");
+		System.out.println("at most " + maxHeld + " points held for a track");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+}
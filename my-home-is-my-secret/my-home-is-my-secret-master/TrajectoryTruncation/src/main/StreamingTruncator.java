@@ -0,0 +1,477 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import index.PackedHilbertRTree;
+import mapViewer.PolygonMapObject;
+
+/**
+ * Truncates tracks that arrive point by point (e.g., live feeds of devices), with the same
+ * result as {@link TrackTruncator#truncate} on the complete track, but releasing points as
+ * soon as they are certain to be kept.
+ *
+ * The start of a track is decided exactly as in the batch truncation; a point only has to
+ * wait for the next point, which gives the direction of its triangle. The end of a track is
+ * not known before the track is finished, so a point j can only be released once some point
+ * k >= j would be kept by the scan from the end, whatever the cell of the last point is. For
+ * every held point, the cells that could still cut it are kept as candidates: point k rules
+ * out every end cell except its own cell and the cells of the clusters its triangle splits.
+ * A point is released when its candidates are empty, i.e., when every possible end cell is
+ * ruled out by it or a later point. When the track is finished, the end cell is known and
+ * the held points up to the last kept point are released.
+ *
+ * At most maxHeld points are held per track; if more points would be held, the oldest held
+ * point is dropped (suppressed), so the released points are always a subset of the batch
+ * result.
+ *
+ * A track stays open until it is finished; tracks of devices that stop sending without
+ * finishing their track are finished with {@link #finishIdleTracks(long)}, which should be
+ * called periodically.
+ *
+ * Tracks of different devices can be added from different threads; the points of one
+ * device must be added in order.
+ *
+ * This is a library API: neither the batch run nor the truncation service feeds points to
+ * it. A caller that receives live points gets an instance from
+ * {@link TruncationIndex#newStreamingTruncator(int)} and drives add, finish and
+ * finishIdleTracks itself.
+ */
+public class StreamingTruncator {
+
+	// relative margin of the bounding box tests (far above the rounding errors of the exact
+	// test)
+	private static final double MARGIN = 1e-6;
+
+	private CellLocator cellLocator;
+	// packed points of the clusters, indexed by id
+	private PackedCluster[] clusters;
+	// bounding boxes of the clusters, their extent and the magnitude of its coordinates
+	private PackedHilbertRTree clusterTree;
+	private double[] extent;
+	private double scale;
+	private double maxDif;
+	private double cosMaxDif;
+	private double sinMaxDif;
+	private int maxHeld;
+
+	private Map<String, Track> tracks = new ConcurrentHashMap<String, Track>();
+	private LongAdder numReleased = new LongAdder();
+	private LongAdder numSuppressed = new LongAdder();
+
+	/**
+	 * a point of a track that was not yet released
+	 */
+	private static class HeldPoint {
+		Coordinate c;
+		int index;
+		int label;
+		// direction of the triangle of the scan from the end (from the previous point)
+		double dx;
+		double dy;
+		// cells of which the point could still be cut, in increasing order
+		int[] candidates;
+	}
+
+	/**
+	 * the state of an open track
+	 */
+	private static class Track {
+		CellCursor cursor;
+		int numPoints;
+		Coordinate previous;
+		int firstCell;
+		int lastCell;
+		// the start of the track is decided once the first kept point is found
+		boolean startDecided;
+		int startIndex;
+		boolean released;
+		ArrayDeque<HeldPoint> held = new ArrayDeque<HeldPoint>();
+		// System.nanoTime() of the last added point
+		long lastAdded = System.nanoTime();
+		// set once the track is removed from the open tracks
+		boolean finished;
+	}
+
+	/**
+	 * @param cellLocator
+	 * @param clustersTree the packed clusters by id
+	 * @param maxDif half the angle of the triangles in radians
+	 * @param maxHeld the maximum number of points held per track
+	 */
+	StreamingTruncator(CellLocator cellLocator, TreeMap<Integer, PackedCluster> clustersTree, double maxDif,
+			int maxHeld) {
+		this.cellLocator = cellLocator;
+		clusters = new PackedCluster[clustersTree.isEmpty() ? 0 : clustersTree.lastKey() + 1];
+		for (Map.Entry<Integer, PackedCluster> e : clustersTree.entrySet()) {
+			if (e.getKey() >= 0) {
+				clusters[e.getKey()] = e.getValue();
+			}
+		}
+		int n = 0;
+		for (PackedCluster cluster : clusters) {
+			n += cluster != null ? 1 : 0;
+		}
+		double[] envelopes = new double[4 * n];
+		int[] ids = new int[n];
+		extent = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		n = 0;
+		for (int id = 0; id < clusters.length; id++) {
+			PackedCluster cluster = clusters[id];
+			if (cluster == null || cluster.size() == 0) {
+				continue;
+			}
+			envelopes[4 * n] = cluster.getMinX();
+			envelopes[4 * n + 1] = cluster.getMinY();
+			envelopes[4 * n + 2] = cluster.getMaxX();
+			envelopes[4 * n + 3] = cluster.getMaxY();
+			ids[n++] = id;
+			extent[0] = Math.min(extent[0], cluster.getMinX());
+			extent[1] = Math.min(extent[1], cluster.getMinY());
+			extent[2] = Math.max(extent[2], cluster.getMaxX());
+			extent[3] = Math.max(extent[3], cluster.getMaxY());
+		}
+		clusterTree = PackedHilbertRTree.build(Arrays.copyOf(envelopes, 4 * n), Arrays.copyOf(ids, n));
+		scale = n == 0 ? 0 : Math.max(Math.abs(extent[0]), Math.abs(extent[2]))
+				+ Math.max(Math.abs(extent[1]), Math.abs(extent[3]));
+		this.maxDif = maxDif;
+		cosMaxDif = Math.cos(maxDif);
+		sinMaxDif = Math.sin(maxDif);
+		this.maxHeld = Math.max(maxHeld, 1);
+	}
+
+	/**
+	 * adds the next point of the track of a device; returns the points of the track that are
+	 * certain to be kept and were not returned before (in the order of the track)
+	 * @param device
+	 * @param c
+	 * @return
+	 * @throws IllegalArgumentException if c is the first point of the track and lies outside
+	 *       of all cells
+	 */
+	public List<Coordinate> add(String device, Coordinate c) {
+		Track t = tracks.computeIfAbsent(device, d -> new Track());
+		synchronized (t) {
+			if (t.finished) {
+				return add(device, c); // finished while waiting, the point starts a new track
+			}
+			t.lastAdded = System.nanoTime();
+			if (t.cursor == null) {
+				t.cursor = cellLocator.newCursor();
+			}
+			PolygonMapObject cell = t.cursor.getCellContainingPoint(c);
+			HeldPoint p = new HeldPoint();
+			p.c = c;
+			p.index = t.numPoints;
+			p.label = cell == null ? TrackLabels.NONE : cell.getId();
+			if (p.index == 0) {
+				if (p.label == TrackLabels.NONE) {
+					// as in TrackTruncator, there is no start cell to cut the track at
+					t.finished = true;
+					tracks.remove(device, t);
+					throw new IllegalArgumentException("track starts outside of all cells");
+				}
+				t.firstCell = p.label;
+				p.candidates = new int[] { p.label };
+			} else {
+				p.dx = c.x - t.previous.x;
+				p.dy = c.y - t.previous.y;
+				p.candidates = computeCandidates(p);
+				updateCandidates(t, p);
+			}
+
+			// the start: the pending point (the only held point) needs the direction to the
+			// next point; points in the first cell are never kept at the start
+			if (!t.startDecided) {
+				HeldPoint pending = t.held.pollFirst();
+				if (pending != null && isKeptAtStart(pending, c, t.firstCell)) {
+					t.startDecided = true;
+					t.startIndex = pending.index;
+					t.held.addFirst(pending);
+				}
+			}
+			if (t.startDecided || p.label != t.firstCell) {
+				t.held.addLast(p);
+			}
+			t.previous = c;
+			t.lastCell = p.label;
+			t.numPoints++;
+
+			while (t.held.size() > maxHeld) {
+				t.held.pollFirst();
+				numSuppressed.increment();
+			}
+			return t.startDecided ? release(t) : Collections.<Coordinate>emptyList();
+		}
+	}
+
+	/**
+	 * ends the track of a device; returns the remaining points of the track that are kept (a
+	 * track that ends outside of all cells is cut before its last points outside of all cells)
+	 * @param device
+	 * @return
+	 */
+	public List<Coordinate> finish(String device) {
+		Track t = tracks.remove(device);
+		if (t == null) {
+			return Collections.emptyList();
+		}
+		synchronized (t) {
+			return finish(t);
+		}
+	}
+
+	/**
+	 * finishes the tracks to which no point was added for at least idleMillis (e.g., of
+	 * devices that stopped sending); returns the remaining points that are kept by device
+	 * @param idleMillis
+	 * @return
+	 */
+	public Map<String, List<Coordinate>> finishIdleTracks(long idleMillis) {
+		Map<String, List<Coordinate>> finished = new HashMap<String, List<Coordinate>>();
+		long now = System.nanoTime();
+		for (Map.Entry<String, Track> e : tracks.entrySet()) {
+			Track t = e.getValue();
+			synchronized (t) {
+				if (now - t.lastAdded >= idleMillis * 1000000 && tracks.remove(e.getKey(), t)) {
+					finished.put(e.getKey(), finish(t));
+				}
+			}
+		}
+		return finished;
+	}
+
+	/**
+	 * finishes a track that was removed from the open tracks (the caller holds its lock)
+	 */
+	private List<Coordinate> finish(Track t) {
+		t.finished = true;
+		List<Coordinate> points = new ArrayList<Coordinate>();
+		if (t.cursor != null) {
+			cellLocator.addStatistics(t.cursor);
+		}
+		// a pending start point is the last point, so nothing after it could be kept
+		if (!t.startDecided) {
+			numSuppressed.add(t.held.size());
+			return points;
+		}
+		// the last point kept by the scan from the end (among the held points)
+		int end = -1;
+		for (Iterator<HeldPoint> it = t.held.descendingIterator(); it.hasNext();) {
+			HeldPoint p = it.next();
+			if (!isCandidate(p, t.lastCell)) {
+				end = p.index;
+				break;
+			}
+		}
+		if (t.released || end > t.startIndex) {
+			for (HeldPoint p : t.held) {
+				if (p.index <= end) {
+					points.add(p.c);
+				}
+			}
+		}
+		numReleased.add(points.size());
+		numSuppressed.add(t.held.size() - points.size());
+		return points;
+	}
+
+	/**
+	 * returns whether the pending start point p is kept, given the next point of the track
+	 */
+	private boolean isKeptAtStart(HeldPoint p, Coordinate next, int firstCell) {
+		if (p.label == firstCell) {
+			return false;
+		}
+		PackedCluster cluster = getCluster(firstCell);
+		if (cluster == null) {
+			return true;
+		}
+		int i = cluster.countPointsInWedge(p.c, p.c.x - next.x, p.c.y - next.y, cosMaxDif, sinMaxDif, maxDif);
+		return i == 0 || i == cluster.size();
+	}
+
+	/**
+	 * releases the held points up to the last one whose candidates are empty
+	 */
+	private List<Coordinate> release(Track t) {
+		int end = -1;
+		for (HeldPoint p : t.held) {
+			if (p.candidates.length == 0) {
+				end = p.index;
+			}
+		}
+		// the end of the track has to be after its start
+		if (end < 0 || (!t.released && end <= t.startIndex)) {
+			return Collections.emptyList();
+		}
+		List<Coordinate> points = new ArrayList<Coordinate>();
+		while (!t.held.isEmpty() && t.held.peekFirst().index <= end) {
+			points.add(t.held.pollFirst().c);
+		}
+		t.released = true;
+		numReleased.add(points.size());
+		return points;
+	}
+
+	/**
+	 * removes the cells that new point p rules out from the candidates of the held points
+	 */
+	private void updateCandidates(Track t, HeldPoint p) {
+		// the candidates of earlier points are subsets of those of later points, so every cell
+		// is tested at most once
+		HashMap<Integer, Boolean> tested = new HashMap<Integer, Boolean>();
+		for (HeldPoint h : t.held) {
+			int n = 0;
+			for (int id : h.candidates) {
+				Boolean candidate = tested.get(id);
+				if (candidate == null) {
+					candidate = isCandidate(p, id);
+					tested.put(id, candidate);
+				}
+				if (candidate) {
+					h.candidates[n++] = id;
+				}
+			}
+			if (n < h.candidates.length) {
+				h.candidates = Arrays.copyOf(h.candidates, n);
+			}
+		}
+	}
+
+	/**
+	 * returns whether the scan from the end would cut point p if the track ended in cell id
+	 */
+	private boolean isCandidate(HeldPoint p, int id) {
+		if (p.label == id) {
+			return true;
+		}
+		if (p.index == 0) {
+			return false;
+		}
+		PackedCluster cluster = getCluster(id);
+		return cluster != null && splits(p, cluster);
+	}
+
+	private boolean splits(HeldPoint p, PackedCluster cluster) {
+		int i = cluster.countPointsInWedge(p.c, p.dx, p.dy, cosMaxDif, sinMaxDif, maxDif);
+		return i != 0 && i != cluster.size();
+	}
+
+	/**
+	 * returns the cells of which p could be cut: its own cell and the cells of the clusters
+	 * its triangle splits
+	 * 
+	 * The bounding box of a cluster that does not meet the boundary of the triangle, i.e.,
+	 * one of its two rays, lies completely inside or completely outside of the triangle, so
+	 * only the clusters whose boxes are crossed by the rays (clipped to the extent of all
+	 * clusters) are tested.
+	 */
+	private int[] computeCandidates(HeldPoint p) {
+		int[][] found = { new int[16] };
+		int[] n = { 0 };
+		if (maxDif >= 0 && maxDif < Math.PI) {
+			// without a direction, the triangle points in direction 0 (as in countPointsInWedge)
+			double dx = p.dx == 0 && p.dy == 0 ? 1 : p.dx;
+			double dy = p.dy;
+			double length = Math.max(Math.abs(dx), Math.abs(dy));
+			dx /= length;
+			dy /= length;
+			PackedHilbertRTree.Visitor visitor = id -> {
+				if (n[0] == found[0].length) {
+					found[0] = Arrays.copyOf(found[0], 2 * n[0]);
+				}
+				found[0][n[0]++] = id;
+				return true;
+			};
+			// the boundary rays of the triangle (rotated by +maxDif and -maxDif)
+			queryRay(p.c, dx * cosMaxDif - dy * sinMaxDif, dy * cosMaxDif + dx * sinMaxDif, visitor);
+			queryRay(p.c, dx * cosMaxDif + dy * sinMaxDif, dy * cosMaxDif - dx * sinMaxDif, visitor);
+		}
+		int[] ids = Arrays.copyOf(found[0], n[0] + 1);
+		ids[n[0]] = p.label;
+		Arrays.sort(ids);
+		int[] candidates = new int[ids.length];
+		int numCandidates = 0;
+		for (int i = 0; i < ids.length; i++) {
+			int id = ids[i];
+			if (i > 0 && id == ids[i - 1]) {
+				continue; // crossed by both rays
+			}
+			if (id == p.label || splits(p, clusters[id])) {
+				candidates[numCandidates++] = id;
+			}
+		}
+		return Arrays.copyOf(candidates, numCandidates);
+	}
+
+	/**
+	 * reports the clusters whose bounding boxes are crossed by the ray from c in direction
+	 * (rx, ry), up to where it leaves the extent of all clusters
+	 */
+	private void queryRay(Coordinate c, double rx, double ry, PackedHilbertRTree.Visitor visitor) {
+		double margin = MARGIN * (Math.abs(c.x) + Math.abs(c.y) + scale);
+		double t = Double.POSITIVE_INFINITY;
+		if (rx != 0) {
+			t = Math.min(t, Math.max((extent[0] - margin - c.x) / rx, (extent[2] + margin - c.x) / rx));
+		}
+		if (ry != 0) {
+			t = Math.min(t, Math.max((extent[1] - margin - c.y) / ry, (extent[3] + margin - c.y) / ry));
+		}
+		if (t >= 0 && t < Double.POSITIVE_INFINITY) {
+			clusterTree.querySegment(c.x, c.y, c.x + t * rx, c.y + t * ry, margin, visitor);
+		}
+	}
+
+	private PackedCluster getCluster(int id) {
+		return id >= 0 && id < clusters.length ? clusters[id] : null;
+	}
+
+	/**
+	 * returns the number of tracks that were started and not finished
+	 * @return
+	 */
+	public int getNumberOfOpenTracks() {
+		return tracks.size();
+	}
+
+	/**
+	 * returns the number of points held for a device (0 if its track is not open)
+	 * @param device
+	 * @return
+	 */
+	public int getNumberOfHeldPoints(String device) {
+		Track t = tracks.get(device);
+		if (t == null) {
+			return 0;
+		}
+		synchronized (t) {
+			return t.held.size();
+		}
+	}
+
+	public long getNumberOfReleasedPoints() {
+		return numReleased.sum();
+	}
+
+	/**
+	 * returns the number of points that were dropped because more than maxHeld points were
+	 * held or that were cut when their track was finished
+	 * @return
+	 */
+	public long getNumberOfSuppressedPoints() {
+		return numSuppressed.sum();
+	}
+}
@@ -0,0 +1,65 @@
+package main;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+import mapViewer.PolygonMapObject;
+
+/**
+ * The ids of the cells containing the points of a single track ({@link #NONE} for points
+ * outside of all cells), shared by the scans from both ends of the track.
+ *
+ * A label is computed when it is first requested and then kept, so every point is located
+ * at most once. Points are located with two cursors, one for each end of the track; a point
+ * is located with the cursor that last located a point closer to it, so that each scan
+ * continues from the cell of its previous point.
+ */
+public class TrackLabels {
+
+	// label of points outside of all cells (0 is the id of a cell)
+	public static final int NONE = -1;
+	private static final int UNKNOWN = -2;
+
+	private LineString track;
+	private int[] labels;
+	private CellCursor[] cursors = new CellCursor[2];
+	// index of the point each cursor located last
+	private int[] positions = new int[2];
+
+	public TrackLabels(LineString track, CellLocator locator) {
+		this.track = track;
+		labels = new int[track.getNumPoints()];
+		Arrays.fill(labels, UNKNOWN);
+		cursors[0] = locator.newCursor();
+		cursors[1] = locator.newCursor();
+		positions[0] = 0;
+		positions[1] = labels.length - 1;
+	}
+
+	public int size() {
+		return labels.length;
+	}
+
+	/**
+	 * returns the id of the cell containing point i of the track ({@link #NONE} if there is no
+	 * such cell)
+	 * @param i
+	 * @return
+	 */
+	public int getLabel(int i) {
+		if (labels[i] == UNKNOWN) {
+			int k = Math.abs(i - positions[0]) <= Math.abs(i - positions[1]) ? 0 : 1;
+			Coordinate c = track.getCoordinateN(i);
+			PolygonMapObject cell = cursors[k].getCellContainingPoint(c);
+			labels[i] = cell == null ? NONE : cell.getId();
+			positions[k] = i;
+		}
+		return labels[i];
+	}
+
+	CellCursor getCursor(int k) {
+		return cursors[k];
+	}
+}
@@ -0,0 +1,233 @@
+package main;
+
+import java.util.TreeMap;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import mapViewer.MultiPointMapObject;
+
+/**
+ * Truncates single tracks at both ends, so that neither the first nor the last cluster
+ * (home) of a track can be inferred from the truncated track.
+ *
+ * A truncator only reads the cells and clusters, so one truncator can be used for many
+ * tracks in parallel.
+ */
+public class TrackTruncator {
+
+	// locator of the polygonal region of each cluster c
+	private CellLocator cellLocator;
+	// data structure containing, for each cluster c, the id and the packed points of c
+	private TreeMap<Integer, PackedCluster> clustersTree = new TreeMap<Integer, PackedCluster>();
+
+	// beta = alpha/2; alpha = angle of triangle in last point of track
+	private double beta;
+	// r = side length (leg) of triangle for visualization
+	private double r;
+	// half the angle of the triangle in radians, with its cosine and sine
+	private double maxDif;
+	private double cosMaxDif;
+	private double sinMaxDif;
+	// whether the tested triangles are added to the results (for visualization only)
+	private boolean recordTriangles = true;
+
+	private GeometryFactory gf = new GeometryFactory();
+
+	public TrackTruncator(CellLocator cellLocator, TreeMap<Integer, MultiPointMapObject> clustersTree, double beta,
+			double r) {
+		this(cellLocator, beta, r);
+		for (MultiPointMapObject mpo : clustersTree.values()) {
+			this.clustersTree.put(mpo.getId(), new PackedCluster(mpo.getMultiPoint()));
+		}
+	}
+
+	private TrackTruncator(CellLocator cellLocator, double beta, double r) {
+		this.cellLocator = cellLocator;
+		this.beta = beta;
+		this.r = r;
+		maxDif = beta * Math.PI / 180.0;
+		cosMaxDif = Math.cos(maxDif);
+		sinMaxDif = Math.sin(maxDif);
+	}
+
+	/**
+	 * returns a truncator for clusters that are already packed (e.g., read from a
+	 * {@link ClusterSnapshot})
+	 * @param cellLocator
+	 * @param clustersTree the packed clusters by id
+	 * @param beta
+	 * @param r
+	 * @return
+	 */
+	static TrackTruncator withPackedClusters(CellLocator cellLocator, TreeMap<Integer, PackedCluster> clustersTree,
+			double beta, double r) {
+		TrackTruncator truncator = new TrackTruncator(cellLocator, beta, r);
+		truncator.clustersTree.putAll(clustersTree);
+		return truncator;
+	}
+
+	TreeMap<Integer, PackedCluster> getClusters() {
+		return clustersTree;
+	}
+
+	/**
+	 * returns half the angle of the triangles in radians
+	 * @return
+	 */
+	public double getMaxDif() {
+		return maxDif;
+	}
+
+	/**
+	 * sets whether the tested triangles are added to the results; without triangles, the
+	 * test of a point needs neither trigonometric functions nor new objects
+	 * @param recordTriangles
+	 */
+	public void setRecordTriangles(boolean recordTriangles) {
+		this.recordTriangles = recordTriangles;
+	}
+
+	public TruncationResult truncate(LineString ls) {
+		TruncationResult result = new TruncationResult();
+
+		// cells of the points of the track, located once when first needed by either scan
+		TrackLabels labels = new TrackLabels(ls, cellLocator);
+
+		// identify the region containing the first and last trajectory point
+		int firstCell = labels.getLabel(0);
+		int lastCell = labels.getLabel(ls.getNumPoints() - 1);
+		PackedCluster firstCluster = getCluster(firstCell, "starts");
+		PackedCluster lastCluster = getCluster(lastCell, "ends");
+
+		// find first point of track to keep
+		int left = 0;
+		while (left < ls.getNumPoints()) {
+			boolean keepPoint = true; // by default a point is kept
+			Coordinate currentPoint = ls.getCoordinateN(left);
+			if (firstCell == labels.getLabel(left)) {
+				keepPoint = false; // point lies in region of home cluster - do not keep!
+			} else if (left < ls.getNumPoints() - 1) {
+				Coordinate prevPoint = ls.getCoordinateN(left + 1);
+				// if the triangle contains some but not all points of the home cluster,
+				// do not keep!
+				keepPoint = testTriangle(currentPoint, prevPoint, firstCluster, result);
+			}
+
+			// decide whether or not to keep the current point - if not, continue with next
+			if (keepPoint) {
+				break;
+			} else {
+				left++;
+			}
+		}
+		result.setNumStartTriangles(result.getTriangles().size());
+
+		// this takes care of the other end of the trajectory, in the same way as before
+		int right = ls.getNumPoints() - 1;
+		while (right >= 0) {
+			boolean keepPoint = true;
+			Coordinate currentPoint = ls.getCoordinateN(right);
+			if (lastCell == labels.getLabel(right)) {
+				keepPoint = false;
+			} else if (right > 0) {
+				Coordinate prevPoint = ls.getCoordinateN(right - 1);
+				keepPoint = testTriangle(currentPoint, prevPoint, lastCluster, result);
+			}
+			if (keepPoint) {
+				break;
+			} else {
+				right--;
+			}
+		}
+		cellLocator.addStatistics(labels.getCursor(0));
+		cellLocator.addStatistics(labels.getCursor(1));
+
+		// create new line string
+		if (0 <= left && left < right && right < ls.getNumPoints()) {
+			Coordinate[] coords = new Coordinate[right - left + 1];
+			for (int i = 0; i < coords.length; i++) {
+				coords[i] = ls.getCoordinateN(i + left);
+			}
+			result.setTruncated(gf.createLineString(coords));
+		}
+		return result;
+	}
+
+	/**
+	 * returns the cluster of the cell at an end of a track
+	 * @throws IllegalArgumentException if the end lies outside of all cells or there is no
+	 *       cluster for its cell
+	 */
+	private PackedCluster getCluster(int cell, String end) {
+		if (cell == TrackLabels.NONE) {
+			throw new IllegalArgumentException("track " + end + " outside of all cells");
+		}
+		PackedCluster cluster = clustersTree.get(cell);
+		if (cluster == null) {
+			throw new IllegalArgumentException("track " + end + " in cell " + cell + ", which has no cluster");
+		}
+		return cluster;
+	}
+
+	/**
+	 * tests the triangle at currentPoint pointing away from prevPoint (and adds it to the
+	 * result if triangles are recorded); returns false if it contains some but not all
+	 * points of the cluster
+	 */
+	private boolean testTriangle(Coordinate currentPoint, Coordinate prevPoint, PackedCluster cluster,
+			TruncationResult result) {
+		double dx = currentPoint.x - prevPoint.x;
+		double dy = currentPoint.y - prevPoint.y;
+		if (recordTriangles) {
+			addTriangle(currentPoint, PackedCluster.direction(dx, dy), result);
+		}
+
+		// i = number of points of the cluster contained in the current triangle
+		int i = cluster.countPointsInWedge(currentPoint, dx, dy, cosMaxDif, sinMaxDif, maxDif);
+		return i == 0 || i == cluster.size();
+	}
+
+	private void addTriangle(Coordinate currentPoint, double alpha, TruncationResult result) {
+		// construct triangle with side length r
+		double alpha1 = alpha + beta * Math.PI / 180.0;
+		double x1 = currentPoint.x + r * Math.cos(alpha1);
+		double y1 = currentPoint.y + r * Math.sin(alpha1);
+
+		double alpha2 = alpha - beta * Math.PI / 180.0;
+		double x2 = currentPoint.x + r * Math.cos(alpha2);
+		double y2 = currentPoint.y + r * Math.sin(alpha2);
+
+		Coordinate[] triangleCoords = new Coordinate[4];
+		triangleCoords[0] = currentPoint;
+		triangleCoords[1] = new Coordinate(x1, y1);
+		triangleCoords[2] = new Coordinate(x2, y2);
+		triangleCoords[3] = currentPoint;
+		Polygon triangle = gf.createPolygon(triangleCoords);
+		result.addTriangle(triangle, alpha);
+	}
+
+	/**
+	 * counts the points of multiPoint in the wedge of directions startAngle +- maxDif seen
+	 * from currentPoint (reference for {@link PackedCluster#countPointsInRange})
+	 */
+	static int countPointsInRange(Coordinate currentPoint, MultiPoint multiPoint, double startAngle, double maxDif) {
+		int counter = 0;
+		for (int i = 0; i < multiPoint.getNumGeometries(); i++) {
+			Point p = (Point) multiPoint.getGeometryN(i);
+			double alpha = Math.atan2(p.getY() - currentPoint.y, p.getX() - currentPoint.x);
+			if (alpha < 0) {
+				alpha += 2 * Math.PI;
+			}
+			double dAlpha = Math.abs(alpha - startAngle);
+			if (dAlpha <= maxDif || 2 * Math.PI - dAlpha <= maxDif) {
+				counter++;
+			}
+		}
+		return counter;
+	}
+}
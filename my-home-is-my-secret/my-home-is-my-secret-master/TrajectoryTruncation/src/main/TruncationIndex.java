@@ -0,0 +1,232 @@
+package main;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import mapViewer.ListLayer;
+import mapViewer.MapObject;
+import mapViewer.MultiPointMapObject;
+import mapViewer.PolygonMapObject;
+
+/**
+ * Everything a truncation needs from a clustering, loaded from its directory
+ * (clusters.snapshot, or cells.shp and multipoints.shp with the grid in cells.grid, and
+ * cells.adjacency if present): the locator of the cells and a truncator with the packed
+ * clusters.
+ *
+ * An index is not changed after loading, so it can be used by any number of threads; a new
+ * clustering is loaded into a new index.
+ */
+public class TruncationIndex {
+
+	private String directory;
+	private CellLocator cellLocator;
+	private TrackTruncator truncator;
+	private int numCells;
+	private int numClusters;
+	// whether the clustering was loaded from clusters.snapshot
+	private boolean fromSnapshot;
+	// length and modification time of cells.shp, multipoints.shp, clusters.snapshot and
+	// cells.adjacency when they were loaded
+	private long[] stamp;
+	private long loadMillis;
+
+	private TruncationIndex() {
+	}
+
+	/**
+	 * loads the clustering in a directory, from clusters.snapshot if it is at least as new
+	 * as cells.shp and multipoints.shp, otherwise from the shapefiles
+	 * @param directory
+	 * @param beta half the angle of the triangles in degrees
+	 * @param r side length of the triangles (for visualization only)
+	 * @return
+	 * @throws IOException if there are no cells or clusters in the directory
+	 */
+	public static TruncationIndex load(String directory, double beta, double r) throws IOException {
+		long start = System.currentTimeMillis();
+		TruncationIndex index = new TruncationIndex();
+		index.directory = directory;
+		// stamp before reading, so that files changed while reading count as changed
+		index.stamp = stamp(directory);
+
+		int maxId;
+		if (hasCurrentSnapshot(index.stamp)) {
+			maxId = index.loadSnapshot(beta, r);
+		} else {
+			maxId = index.loadShapefiles(beta, r);
+		}
+
+		// adjacency of the cells (written by the clustering), so that the points of a track
+		// are first tested against the cell of the previous point and its neighbors
+		String adjacencyFile = directory + File.separator + "cells.adjacency";
+		if (new File(adjacencyFile).exists()) {
+			try {
+				index.cellLocator.setAdjacency(CellAdjacency.read(adjacencyFile, maxId));
+			} catch (IOException ex) {
+				System.out.println("adjacency_read: " + ex);
+			}
+		}
+		index.loadMillis = System.currentTimeMillis() - start;
+		return index;
+	}
+
+	/**
+	 * returns whether a stamp shows a snapshot that is not older than the shapefiles
+	 */
+	private static boolean hasCurrentSnapshot(long[] stamp) {
+		return stamp[5] != 0 && stamp[5] >= stamp[1] && stamp[5] >= stamp[3];
+	}
+
+	/**
+	 * maps clusters.snapshot; the cells are only read when they are first needed, the
+	 * points of the clusters are copied right away
+	 * @return the largest id of a cell
+	 */
+	private int loadSnapshot(double beta, double r) throws IOException {
+		String snapshotFile = directory + File.separator + "clusters.snapshot";
+		ClusterSnapshot snapshot = ClusterSnapshot.map(snapshotFile);
+		TreeMap<Integer, PackedCluster> clustersTree = new TreeMap<Integer, PackedCluster>();
+		for (int id : snapshot.getIds()) {
+			clustersTree.put(id, snapshot.getCluster(id));
+			if (snapshot.hasCell(id)) {
+				numCells++;
+			}
+		}
+		if (numCells == 0 || clustersTree.isEmpty()) {
+			throw new IOException("no cells or clusters in " + snapshotFile);
+		}
+		numClusters = clustersTree.size();
+
+		// the cells are located with the tree of the snapshot, a grid would need all cells
+		cellLocator = new CellLocator(snapshot);
+		truncator = TrackTruncator.withPackedClusters(cellLocator, clustersTree, beta, r);
+		fromSnapshot = true;
+		return snapshot.getMaxId();
+	}
+
+	/**
+	 * reads cells.shp and multipoints.shp
+	 * @return the largest id of a cell
+	 */
+	private int loadShapefiles(double beta, double r) throws IOException {
+		// shp files with a polygons corresponding to the merged voronoi cells for each
+		// cluster
+		String cellsFile = directory + File.separator + "cells.shp";
+		ListLayer cellsList = ListLayer.readFromShapefile(cellsFile, Color.DARK_GRAY);
+
+		// shp file with a multipoint for each cluster
+		ListLayer clustersList = ListLayer.readFromShapefile(directory + File.separator + "multipoints.shp",
+				Color.DARK_GRAY);
+
+		// data structure containing, for each cluster c, the id and the corresponding
+		// polygonal region
+		TreeMap<Integer, PolygonMapObject> cellsTree = new TreeMap<Integer, PolygonMapObject>();
+		for (MapObject o : cellsList.getMyObjects()) {
+			PolygonMapObject pmo = (PolygonMapObject) o;
+			cellsTree.put(pmo.getId(), pmo);
+		}
+		// data structure containing, for each cluster c, the id and the corresponding
+		// multipoint
+		TreeMap<Integer, MultiPointMapObject> clustersTree = new TreeMap<Integer, MultiPointMapObject>();
+		for (MapObject o : clustersList.getMyObjects()) {
+			MultiPointMapObject pmo = (MultiPointMapObject) o;
+			clustersTree.put(pmo.getId(), pmo);
+		}
+		if (cellsTree.isEmpty() || clustersTree.isEmpty()) {
+			throw new IOException("no cells or clusters in " + directory);
+		}
+		numCells = cellsTree.size();
+		numClusters = clustersTree.size();
+
+		// locator for the polygonal region containing a point; the lookup grid covers the
+		// extent of the clusters, is built once per clustering and stored next to the cells
+		Envelope clustersExtent = new Envelope();
+		for (MultiPointMapObject mpo : clustersTree.values()) {
+			clustersExtent.expandToInclude(mpo.getMultiPoint().getEnvelopeInternal());
+		}
+		CellGrid grid = CellGrid.readOrBuild(directory + File.separator + "cells.grid", cellsFile,
+				cellsTree.values(), clustersExtent);
+		cellLocator = new CellLocator(cellsTree.values(), grid);
+		truncator = new TrackTruncator(cellLocator, clustersTree, beta, r);
+		return cellsTree.lastKey();
+	}
+
+	/**
+	 * returns the length and modification time of cells.shp, multipoints.shp,
+	 * clusters.snapshot and cells.adjacency in a directory (0 for files that do not exist)
+	 */
+	static long[] stamp(String directory) {
+		File cells = new File(directory, "cells.shp");
+		File clusters = new File(directory, "multipoints.shp");
+		File snapshot = new File(directory, "clusters.snapshot");
+		File adjacency = new File(directory, "cells.adjacency");
+		return new long[] { cells.length(), cells.lastModified(), clusters.length(), clusters.lastModified(),
+				snapshot.length(), snapshot.lastModified(), adjacency.length(), adjacency.lastModified() };
+	}
+
+	/**
+	 * returns whether cells.shp, multipoints.shp, clusters.snapshot or cells.adjacency
+	 * changed since the index was loaded
+	 * @return
+	 */
+	public boolean isOutdated() {
+		return !Arrays.equals(stamp, stamp(directory));
+	}
+
+	long[] getStamp() {
+		return stamp;
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public CellLocator getCellLocator() {
+		return cellLocator;
+	}
+
+	public TrackTruncator getTruncator() {
+		return truncator;
+	}
+
+	/**
+	 * returns a new truncator for tracks that arrive point by point, with the same cells,
+	 * clusters and angle as the truncator of the index
+	 * @param maxHeld the maximum number of points held per track
+	 * @return
+	 */
+	public StreamingTruncator newStreamingTruncator(int maxHeld) {
+		return new StreamingTruncator(cellLocator, truncator.getClusters(), truncator.getMaxDif(), maxHeld);
+	}
+
+	/**
+	 * returns whether the clustering was loaded from clusters.snapshot (instead of the
+	 * shapefiles)
+	 * @return
+	 */
+	public boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+
+	public int getNumberOfCells() {
+		return numCells;
+	}
+
+	public int getNumberOfClusters() {
+		return numClusters;
+	}
+
+	/**
+	 * returns the time it took to load the index in milliseconds
+	 * @return
+	 */
+	public long getLoadMillis() {
+		return loadMillis;
+	}
+}
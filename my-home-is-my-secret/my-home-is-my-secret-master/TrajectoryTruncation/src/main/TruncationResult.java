@@ -0,0 +1,50 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * The result of truncating a single track: the truncated line string (null if nothing of
+ * the track is kept) and the triangles tested at both ends of the track, together with
+ * their directions.
+ */
+public class TruncationResult {
+
+	private LineString truncated;
+	private List<Polygon> triangles = new ArrayList<Polygon>();
+	private List<Double> triangleRotations = new ArrayList<Double>();
+	// number of triangles tested at the start of the track (these come first)
+	private int numStartTriangles;
+
+	public LineString getTruncated() {
+		return truncated;
+	}
+
+	void setTruncated(LineString truncated) {
+		this.truncated = truncated;
+	}
+
+	public List<Polygon> getTriangles() {
+		return triangles;
+	}
+
+	public List<Double> getTriangleRotations() {
+		return triangleRotations;
+	}
+
+	void addTriangle(Polygon triangle, double rotation) {
+		triangles.add(triangle);
+		triangleRotations.add(rotation);
+	}
+
+	public int getNumStartTriangles() {
+		return numStartTriangles;
+	}
+
+	void setNumStartTriangles(int numStartTriangles) {
+		this.numStartTriangles = numStartTriangles;
+	}
+}
@@ -0,0 +1,290 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKTWriter;
+
+/**
+ * A local http service that keeps a {@link TruncationIndex} loaded and truncates the tracks
+ * of requests, so that the cells and clusters are read and indexed only once instead of for
+ * every batch of tracks.
+ *
+ * Requests (the service only listens on the loopback address):
+ * - POST /truncate: one track per line as WKT (LineString or MultiLineString, every part of
+ *   a MultiLineString is a track); the response holds one line per track with the truncated
+ *   track as WKT ("LINESTRING EMPTY" if nothing of the track is kept, "ERROR" and the
+ *   reason if the track could not be truncated, e.g., because it starts outside of all
+ *   cells). The headers X-Tracks, X-Failed-Tracks, X-Parse-Millis, X-Truncate-Millis and
+ *   X-Total-Millis give the number of tracks and the time spent on the request,
+ *   X-Index-Version the index that was used.
+ * - POST /reload: loads the clustering again from the directory of the current index.
+ * - GET /status: the current index, the number of requests and tracks and the time spent.
+ *
+ * The index is replaced atomically: a request uses the index that was current when it
+ * started, while a new index is loaded next to it. Besides explicit reloads, cells.shp,
+ * multipoints.shp, clusters.snapshot and cells.adjacency are polled; a new clustering is
+ * loaded once these files have not changed for a whole polling interval (so that files that
+ * are still being written are not read).
+ */
+public class TruncationService {
+
+	private static final long POLL_SECONDS = 10;
+
+	private AtomicReference<Version> current = new AtomicReference<Version>();
+	private double beta;
+	private double r;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private ScheduledExecutorService watcher;
+	// stamp of the files seen in the last poll that differs from the current index
+	private long[] pendingStamp;
+	// stamp of the files the last failed load was started with
+	private long[] failedStamp;
+
+	private LongAdder numRequests = new LongAdder();
+	private LongAdder numTracks = new LongAdder();
+	private LongAdder numFailedTracks = new LongAdder();
+	private LongAdder totalMillis = new LongAdder();
+
+	/**
+	 * an index with its number (1 for the index the service was started with)
+	 */
+	private static class Version {
+		TruncationIndex index;
+		long number;
+
+		Version(TruncationIndex index, long number) {
+			this.index = index;
+			this.number = number;
+		}
+	}
+
+	/**
+	 * @param index the index used until a new clustering is loaded
+	 * @param port the port (0 for any free port)
+	 * @param beta half the angle of the triangles in degrees (for reloaded indexes)
+	 * @param r side length of the triangles (for reloaded indexes)
+	 * @throws IOException
+	 */
+	public TruncationService(TruncationIndex index, int port, double beta, double r) throws IOException {
+		this.beta = beta;
+		this.r = r;
+		index.getTruncator().setRecordTriangles(false);
+		current.set(new Version(index, 1));
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.createContext("/truncate", this::handleTruncate);
+		server.createContext("/reload", this::handleReload);
+		server.createContext("/status", this::handleStatus);
+	}
+
+	public void start() {
+		server.start();
+		watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread t = new Thread(runnable, "index-watcher");
+			t.setDaemon(true);
+			return t;
+		});
+		watcher.scheduleWithFixedDelay(this::poll, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+		System.out.println("truncation service listening on port " + getPort());
+	}
+
+	public void stop() {
+		if (watcher != null) {
+			watcher.shutdownNow();
+		}
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * loads the clustering again from the directory of the current index and replaces the
+	 * index; the current index is kept if loading fails
+	 * @return the new index
+	 * @throws IOException
+	 */
+	public synchronized TruncationIndex reload() throws IOException {
+		Version v = current.get();
+		TruncationIndex next = TruncationIndex.load(v.index.getDirectory(), beta, r);
+		next.getTruncator().setRecordTriangles(false);
+		current.set(new Version(next, v.number + 1));
+		pendingStamp = null;
+		System.out.println("index " + (v.number + 1) + " loaded in " + next.getLoadMillis() + " ms ("
+				+ next.getNumberOfCells() + " cells)");
+		return next;
+	}
+
+	private synchronized void poll() {
+		TruncationIndex index = current.get().index;
+		long[] stamp = TruncationIndex.stamp(index.getDirectory());
+		if (Arrays.equals(stamp, index.getStamp()) || Arrays.equals(stamp, failedStamp)) {
+			pendingStamp = null;
+			return;
+		}
+		if (!Arrays.equals(stamp, pendingStamp)) {
+			pendingStamp = stamp; // changed, wait until the files are stable
+			return;
+		}
+		try {
+			reload();
+		} catch (IOException | RuntimeException ex) {
+			failedStamp = stamp;
+			pendingStamp = null;
+			System.out.println("reload: " + ex);
+		}
+	}
+
+	private void handleTruncate(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		if (!exchange.getRequestMethod().equals("POST")) {
+			send(exchange, 405, "use POST\n");
+			return;
+		}
+		Version v = current.get();
+
+		// every part of a (multi)line string is a track
+		List<LineString> tracks = new ArrayList<LineString>();
+		WKTReader reader = new WKTReader(new GeometryFactory());
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				try {
+					Geometry g = reader.read(line);
+					for (int i = 0; i < g.getNumGeometries(); i++) {
+						LineString track = (LineString) g.getGeometryN(i);
+						if (track.isEmpty()) {
+							throw new ParseException("empty track");
+						}
+						tracks.add(track);
+					}
+				} catch (ParseException | RuntimeException ex) {
+					// e.g., a line string with a single point (IllegalArgumentException) or a
+					// geometry that is not a line string (ClassCastException)
+					send(exchange, 400, "line " + lineNumber + ": " + ex.getMessage() + "\n");
+					return;
+				}
+			}
+		}
+		long parsed = System.nanoTime();
+
+		// a track that cannot be truncated gets an error line instead of failing the request
+		TrackTruncator truncator = v.index.getTruncator();
+		TruncationResult[] results = new TruncationResult[tracks.size()];
+		String[] errors = new String[tracks.size()];
+		IntStream.range(0, tracks.size()).parallel().forEach(i -> {
+			try {
+				results[i] = truncator.truncate(tracks.get(i));
+			} catch (RuntimeException ex) {
+				errors[i] = ex.toString().replace('\n', ' ');
+			}
+		});
+		long truncated = System.nanoTime();
+
+		WKTWriter writer = new WKTWriter();
+		StringBuilder response = new StringBuilder();
+		int failed = 0;
+		for (int i = 0; i < results.length; i++) {
+			if (errors[i] != null) {
+				response.append("ERROR ").append(errors[i]);
+				failed++;
+			} else if (results[i].getTruncated() != null) {
+				response.append(writer.write(results[i].getTruncated()));
+			} else {
+				response.append("LINESTRING EMPTY");
+			}
+			response.append('\n');
+		}
+		long end = System.nanoTime();
+
+		numRequests.increment();
+		numTracks.add(tracks.size());
+		numFailedTracks.add(failed);
+		totalMillis.add((end - start) / 1000000);
+		exchange.getResponseHeaders().add("X-Index-Version", "" + v.number);
+		exchange.getResponseHeaders().add("X-Tracks", "" + tracks.size());
+		exchange.getResponseHeaders().add("X-Failed-Tracks", "" + failed);
+		exchange.getResponseHeaders().add("X-Parse-Millis", millis(parsed - start));
+		exchange.getResponseHeaders().add("X-Truncate-Millis", millis(truncated - parsed));
+		exchange.getResponseHeaders().add("X-Total-Millis", millis(end - start));
+		send(exchange, 200, response.toString());
+	}
+
+	private void handleReload(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			send(exchange, 405, "use POST\n");
+			return;
+		}
+		try {
+			TruncationIndex next = reload();
+			send(exchange, 200, "index " + current.get().number + " loaded in " + next.getLoadMillis() + " ms\n");
+		} catch (IOException | RuntimeException ex) {
+			send(exchange, 500, "reload: " + ex + "\n");
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		Version v = current.get();
+		StringBuilder status = new StringBuilder();
+		status.append("index: ").append(v.number).append('\n');
+		status.append("directory: ").append(v.index.getDirectory()).append('\n');
+		status.append("source: ").append(v.index.isFromSnapshot() ? "clusters.snapshot" : "shapefiles").append('\n');
+		status.append("cells: ").append(v.index.getNumberOfCells()).append('\n');
+		status.append("clusters: ").append(v.index.getNumberOfClusters()).append('\n');
+		status.append("outdated: ").append(v.index.isOutdated()).append('\n');
+		status.append("requests: ").append(numRequests.sum()).append('\n');
+		status.append("tracks: ").append(numTracks.sum()).append('\n');
+		status.append("failed tracks: ").append(numFailedTracks.sum()).append('\n');
+		status.append("total ms: ").append(totalMillis.sum()).append('\n');
+		status.append(v.index.getCellLocator().getStatistics()).append('\n');
+		send(exchange, 200, status.toString());
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static void send(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
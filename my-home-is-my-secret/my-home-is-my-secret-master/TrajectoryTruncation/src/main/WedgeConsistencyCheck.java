@@ -0,0 +1,82 @@
+package main;
+
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPoint;
+
+/**
+ * Checks that the trig-free wedge test (PackedCluster.countPointsInWedge) returns the same
+ * counts as the atan2 test (TrackTruncator.countPointsInRange) on random clusters and
+ * wedges, including the hard cases: points on the boundary rays of the wedge, points equal
+ * to the apex, a direction of length zero and angles of 0, 90 and 180 degrees.
+ *
+ * Arguments: number of random cases (default 100000)
+ */
+public class WedgeConsistencyCheck {
+
+	private static final double[] BETAS = { 0.0, 1e-7, 1.0, 15.0, 30.0, 45.0, 60.0, 89.999, 90.0, 120.0, 179.999,
+			180.0, 200.0 };
+
+	public static void main(String[] args) {
+		int cases = 100000;
+		if (args.length > 0) {
+			cases = Integer.parseInt(args[0]);
+		}
+		Random random = new Random(7);
+		GeometryFactory gf = new GeometryFactory();
+		int mismatches = 0;
+		for (int n = 0; n < cases; n++) {
+			double beta = BETAS[random.nextInt(BETAS.length)];
+			double maxDif = beta * Math.PI / 180.0;
+
+			// apex and direction (in 5% of the cases of length zero)
+			Coordinate c = new Coordinate(random.nextDouble() * 1e4, random.nextDouble() * 1e4);
+			double dx = 0;
+			double dy = 0;
+			if (random.nextDouble() >= 0.05) {
+				dx = random.nextGaussian() * 50;
+				dy = random.nextGaussian() * 50;
+				if (random.nextDouble() < 0.1) {
+					dy = 0; // axis parallel directions
+				}
+			}
+			double alpha = PackedCluster.direction(dx, dy);
+
+			Coordinate[] members = new Coordinate[1 + random.nextInt(64)];
+			for (int i = 0; i < members.length; i++) {
+				double t = random.nextDouble() * 500;
+				switch (random.nextInt(6)) {
+				case 0: // on a boundary ray
+					double a = alpha + (random.nextBoolean() ? maxDif : -maxDif);
+					members[i] = new Coordinate(c.x + t * Math.cos(a), c.y + t * Math.sin(a));
+					break;
+				case 1: // the apex itself
+					members[i] = new Coordinate(c.x, c.y);
+					break;
+				case 2: // in or against the direction
+					double s = random.nextBoolean() ? t : -t;
+					members[i] = new Coordinate(c.x + s * dx, c.y + s * dy);
+					break;
+				default:
+					members[i] = new Coordinate(c.x + random.nextGaussian() * 300, c.y + random.nextGaussian() * 300);
+				}
+			}
+			MultiPoint multiPoint = gf.createMultiPoint(members);
+			PackedCluster packed = new PackedCluster(multiPoint);
+
+			int expected = TrackTruncator.countPointsInRange(c, multiPoint, alpha, maxDif);
+			int count = packed.countPointsInWedge(c, dx, dy, Math.cos(maxDif), Math.sin(maxDif), maxDif);
+			if (count != expected) {
+				mismatches++;
+				System.out.println("beta=" + beta + " apex=" + c + " d=(" + dx + ", " + dy + "): " + count
+						+ " instead of " + expected);
+			}
+		}
+		System.out.println(cases + " cases, " + mismatches + " mismatches");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -12,6 +12,7 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jump.feature.Feature;
@@ -141,6 +142,10 @@ public class ListLayer extends Layer {
 					PolygonMapObject polO = new PolygonMapObject((Polygon) geom);
 					polO.setId(id);
 					ll.add(polO);
+				} else if (geom.getGeometryType().equals("MultiPolygon")) {
+					PolygonMapObject polO = new PolygonMapObject((MultiPolygon) geom);
+					polO.setId(id);
+					ll.add(polO);
 				}
 			}
 		} catch (Exception e) {
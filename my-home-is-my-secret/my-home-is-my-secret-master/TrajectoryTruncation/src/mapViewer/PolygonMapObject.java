@@ -6,11 +6,16 @@ import com.vividsolutions.jts.geom.Coordinate;
 //Download https://sourceforge.net/projects/jts-topo-suite/
 import com.vividsolutions.jts.geom.Envelope;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 
+/**
+ * A Polygon or a MultiPolygon (e.g., a merged voronoi cell whose parts only touch in points)
+ */
 public class PolygonMapObject implements MapObject {
 
-   private Polygon polygon;
+   private Geometry polygon;
    private int id;
    
    public PolygonMapObject(Polygon polygon) {
@@ -18,13 +23,20 @@ public class PolygonMapObject implements MapObject {
       id = 0;
    }
    
+   public PolygonMapObject(MultiPolygon polygon) {
+      this.polygon = polygon;
+      id = 0;
+   }
+   
    @Override
    public void draw(Graphics2D g, Transformation t) {
-      java.awt.Polygon awtPolygon = new java.awt.Polygon();
-      for (Coordinate p : polygon.getCoordinates()) {
-         awtPolygon.addPoint(t.getColumn(p.x), t.getRow(p.y));
+      for (int i = 0; i < polygon.getNumGeometries(); i++) {
+         java.awt.Polygon awtPolygon = new java.awt.Polygon();
+         for (Coordinate p : polygon.getGeometryN(i).getCoordinates()) {
+            awtPolygon.addPoint(t.getColumn(p.x), t.getRow(p.y));
+         }
+         g.drawPolygon(awtPolygon);
       }
-      g.drawPolygon(awtPolygon);
    }
 
    @Override
@@ -41,7 +53,11 @@ public class PolygonMapObject implements MapObject {
       this.id = id;
    }
 
-   public Polygon getPolygon() {
+   /**
+    * returns the Polygon or MultiPolygon
+    * @return
+    */
+   public Geometry getPolygon() {
       return polygon;
    }
 }
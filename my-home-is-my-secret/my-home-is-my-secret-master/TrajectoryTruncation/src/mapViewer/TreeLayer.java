@@ -1,39 +1,65 @@
 package mapViewer;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
+import index.PackedHilbertRTree;
+
+/**
+ * A layer whose objects are found with a {@link PackedHilbertRTree} on their bounding boxes.
+ * The tree is built on the first query after objects were added.
+ */
 public class TreeLayer extends Layer {
 
-	private STRtree myObjects;
+	private ArrayList<MapObject> myObjects;
+	// items of the tree are the positions of the objects in myObjects (null if outdated)
+	private PackedHilbertRTree tree;
 
 	public TreeLayer(Color c) {
 		super(c);
 		extent = null;
-    	myObjects = new STRtree();
+		myObjects = new ArrayList<MapObject>();
 	}
 
 	@Override
 	public List<MapObject> query(Envelope searchEnv) {
 		LinkedList<MapObject> result = new LinkedList<MapObject>();
-		for (Object o : myObjects.query(searchEnv)) {
-			MapObject mo = (MapObject) o;
-			result.add(mo);
+		if (tree == null) {
+			buildTree();
 		}
+		tree.query(searchEnv.getMinX(), searchEnv.getMinY(), searchEnv.getMaxX(), searchEnv.getMaxY(), i -> {
+			result.add(myObjects.get(i));
+			return true;
+		});
 		return result;
 	}
 
+	private void buildTree() {
+		double[] envelopes = new double[4 * myObjects.size()];
+		int[] ids = new int[myObjects.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Envelope env = myObjects.get(i).getBoundingBox();
+			envelopes[4 * i] = env.getMinX();
+			envelopes[4 * i + 1] = env.getMinY();
+			envelopes[4 * i + 2] = env.getMaxX();
+			envelopes[4 * i + 3] = env.getMaxY();
+			ids[i] = i;
+		}
+		tree = PackedHilbertRTree.build(envelopes, ids);
+	}
+
 	public void add(MapObject mo) {
-		myObjects.insert(mo.getBoundingBox(), mo);
-    	if (extent == null) {
-    		extent = mo.getBoundingBox();
-    	} else {
-    		extent.expandToInclude(mo.getBoundingBox());
-    	}
+		myObjects.add(mo);
+		tree = null;
+		if (extent == null) {
+			extent = mo.getBoundingBox();
+		} else {
+			extent.expandToInclude(mo.getBoundingBox());
+		}
 	}
 
 }